@@ -0,0 +1,45 @@
+package de.big_reddy.brigitte.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.big_reddy.brigitte.data.DatabaseManager;
+import de.big_reddy.brigitte.data.models.Expirable;
+
+/**
+ * Checking for expired entries. <br>
+ * Only the first check of a day does actual work, so {@link #firstCheck}
+ * measures a single cold check per fork, while {@link #idleCheck} measures the
+ * checks in between.
+ *
+ * @author Big_Reddy
+ *
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExpiryBenchmark {
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(value = 5, jvmArgsAppend = "-Xmx4g")
+    public List<? extends Expirable> firstCheck(final Population population) {
+        return DatabaseManager.inst().getExpiredEntrys();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+    public List<? extends Expirable> idleCheck(final Population population) {
+        return DatabaseManager.inst().getExpiredEntrys();
+    }
+}
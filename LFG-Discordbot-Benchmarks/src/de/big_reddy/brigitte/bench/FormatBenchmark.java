@@ -0,0 +1,170 @@
+package de.big_reddy.brigitte.bench;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.big_reddy.brigitte.Command;
+import de.big_reddy.brigitte.CommandParser;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Parsing commands and formatting replies, no database involved. <br>
+ * {@link FormatBenchmark#legacyParse} runs the regular expression and split
+ * parsing replaced by {@link CommandParser}, run both with
+ * <code>-prof gc</code> to compare their allocation rate.
+ *
+ * @author Big_Reddy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+    /**
+     * Messages to parse, kept apart so only {@link FormatBenchmark#parse}
+     * runs once per message.
+     */
+    @State(Scope.Benchmark)
+    public static class Messages {
+        @Param({ "!search -role tank -sr 2500 -range 200 -notify", "!search -sr 3000", "!sr 2500",
+                "!description Looking for a team" })
+        public String message;
+    }
+
+    private Player player;
+
+    @Setup
+    public void setup() {
+        this.player = new Player("123456789012345678");
+        this.player.setRole(Role.SUPPORT);
+        this.player.setSr(2750);
+        this.player.setDescription("Looking for a team");
+    }
+
+    @Benchmark
+    public Command parse(final Messages messages) throws ParseException {
+        return CommandParser.parse(messages.message);
+    }
+
+    @Benchmark
+    public Object legacyParse(final Messages messages) {
+        return LegacyParser.parse(messages.message);
+    }
+
+    @Benchmark
+    public String playerToString() {
+        return this.player.toString();
+    }
+
+    /**
+     * Parsing of private messages as done before {@link CommandParser}: a
+     * prefix check per command, then splitting the message by regular
+     * expressions.
+     */
+    private static final class LegacyParser {
+        private LegacyParser() {}
+
+        /**
+         * @return Parsed search, value of profile command or error reply
+         */
+        private static Object parse(final String message) {
+            if (message.startsWith("!search")) return parseSearch(message.replaceFirst("!search\\s*", ""));
+            if (message.startsWith("!update") || message.startsWith("!delete") || message.startsWith("!help"))
+                return message;
+            if (message.startsWith("!")) return parseProfile(message);
+            return "Try !help";
+        }
+
+        private static Object parseSearch(final String message) {
+            final Search search = new Search();
+            boolean save = false;
+            boolean delete = false;
+            for (final String parameter : message.split("\\s*-")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                final String[] temp = parameter.split("\\s+", 2);
+                switch (temp[0]) {
+                    case "role":
+                        if (temp.length < 2) return "-role *flag expects a role as second parameter, given non*";
+                        final Role r = Role.getRoleByIdentifier(temp[1]);
+                        if (r == null) return temp[1] + " *is no valid role*";
+                        search.setRole(r);
+                        break;
+                    case "sr":
+                        try {
+                            if (temp.length < 2) return "-sr *flag expects a number between* 0 *and* 5000 "
+                                    + "*as second parameter, given non*";
+                            final int sr = Integer.parseInt(temp[1]);
+                            if (sr < 0 || sr > 5000) throw new IllegalArgumentException();
+                            search.setSr(sr);
+                        } catch (final IllegalArgumentException e) {
+                            return "-sr *flage expects a number between* 0 *and* 5000*, given* " + temp[1];
+                        }
+                        break;
+                    case "range":
+                        try {
+                            if (temp.length < 2) return "-range *flag expects a number as second parameter, given non*";
+                            search.setRange(Integer.parseInt(temp[1]));
+                        } catch (final IllegalArgumentException e) {
+                            return "-range *flage expects a number, given* " + temp[1];
+                        }
+                        break;
+                    case "delete":
+                        if (save) return "-delete *and* -notify *are exclusive.\nYou may not use both*";
+                        delete = true;
+                        break;
+                    case "notify":
+                        if (delete) return "-delete *and* -notify *are exclusive.\nYou may not use both*";
+                        save = true;
+                        break;
+                    default:
+                        return "*Unknown flag:* " + temp[0];
+                }
+            }
+            return search;
+        }
+
+        private static Object parseProfile(final String message) {
+            String value = message.split("\\s+", 2)[1];
+            if (message.startsWith("!sr")) {
+                try {
+                    final int tempValue = Integer.parseInt(value);
+                    if (tempValue >= 5000 || tempValue <= 0) throw new NumberFormatException();
+                    return tempValue;
+                } catch (final NumberFormatException e) {
+                    return "*Expected a number [0-5000]:* " + value;
+                }
+            } else if (message.startsWith("!role")) {
+                value = value.toLowerCase();
+                switch (value) {
+                    case "tank":
+                    case "dps":
+                    case "support":
+                    case "flex":
+                        return Role.getRoleByIdentifier(value);
+                    default:
+                        return "*Unknown role:* " + value;
+                }
+            } else if (message.startsWith("!description")) return value;
+            return "*Unknown command:* " + message.split("\\s+")[0];
+        }
+    }
+}
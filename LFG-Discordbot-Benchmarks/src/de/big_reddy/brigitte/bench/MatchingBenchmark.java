@@ -0,0 +1,52 @@
+package de.big_reddy.brigitte.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.big_reddy.brigitte.data.DatabaseManager;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Matching players to searches and searches to players.
+ *
+ * @author Big_Reddy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class MatchingBenchmark {
+    private int next;
+
+    @Benchmark
+    public List<Player> getPlayers(final Population population) {
+        final Search search = population.searchProbes[this.next++ & (Population.PROBES - 1)];
+        return DatabaseManager.inst().getPlayers(search);
+    }
+
+    @Benchmark
+    public int countPlayers(final Population population) {
+        final Search search = population.searchProbes[this.next++ & (Population.PROBES - 1)];
+        return DatabaseManager.inst().countPlayers(search);
+    }
+
+    @Benchmark
+    public List<Search> getSearches(final Population population) {
+        final Player player = population.playerProbes[this.next++ & (Population.PROBES - 1)];
+        return DatabaseManager.inst().getSearches(player);
+    }
+}
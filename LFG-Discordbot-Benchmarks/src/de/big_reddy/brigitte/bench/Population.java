@@ -0,0 +1,127 @@
+package de.big_reddy.brigitte.bench;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.logger.LocalLog;
+import com.j256.ormlite.table.TableUtils;
+
+import de.big_reddy.brigitte.data.DatabaseManager;
+import de.big_reddy.brigitte.data.SchemaMigration;
+import de.big_reddy.brigitte.data.models.Expirable;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * In-memory H2 database seeded with random players and searches, loaded into
+ * {@link DatabaseManager}. <br>
+ * As {@link DatabaseManager} is a singleton, every benchmark has to run in its
+ * own fork.
+ *
+ * @author Big_Reddy
+ *
+ */
+@State(Scope.Benchmark)
+public class Population {
+    /**
+     * Number of probes cycled through by the benchmarks.
+     */
+    static final int PROBES = 1024;
+    private static final Role[] ROLES = { Role.TANK, Role.DPS, Role.SUPPORT, Role.FLEX };
+    /**
+     * Discord-ID of first player, players get snowflakes counting up.
+     */
+    private static final long FIRST_ID = 100000000000000000L;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int players;
+    @Param({ "10000" })
+    public int searches;
+
+    /**
+     * Searches to look up players for, not saved.
+     */
+    Search[] searchProbes;
+    /**
+     * Players to look up searches for, not saved.
+     */
+    Player[] playerProbes;
+    private JdbcConnectionSource connectionSource;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        System.setProperty(LocalLog.LOCAL_LOG_LEVEL_PROPERTY, "ERROR");
+        this.connectionSource = new JdbcConnectionSource("jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1");
+        TableUtils.createTableIfNotExists(this.connectionSource, Player.class);
+        TableUtils.createTableIfNotExists(this.connectionSource, Search.class);
+        SchemaMigration.migrate(this.connectionSource);
+        final Random random = new Random(42);
+        final Dao<Player, String> playerDao = DaoManager.createDao(this.connectionSource, Player.class);
+        playerDao.callBatchTasks(() -> {
+            for (int i = 0; i < this.players; i++) {
+                playerDao.create(randomPlayer(random, Long.toString(FIRST_ID + i)));
+            }
+            return null;
+        });
+        final Dao<Search, String> searchDao = DaoManager.createDao(this.connectionSource, Search.class);
+        searchDao.callBatchTasks(() -> {
+            for (int i = 0; i < this.searches; i++) {
+                final Search search = randomSearch(random, "s" + i);
+                search.setId(i);
+                searchDao.create(search);
+            }
+            return null;
+        });
+        DatabaseManager.init(this.connectionSource);
+
+        this.searchProbes = new Search[PROBES];
+        this.playerProbes = new Player[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            this.searchProbes[i] = randomSearch(random, "probe" + i);
+            this.playerProbes[i] = randomPlayer(random, "probe" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        DatabaseManager.inst().shutdown();
+        this.connectionSource.close();
+    }
+
+    /**
+     * Return random player, last updated up to a few days after it is free to
+     * delete.
+     */
+    private static Player randomPlayer(final Random random, final String id) {
+        final Player player = new Player(id);
+        player.setRole(ROLES[random.nextInt(ROLES.length)]);
+        player.setSr(1 + random.nextInt(4999));
+        player.setDescription("Looking for a team, " + id);
+        player.setLastUpdate(LocalDate.now().minusDays(random.nextInt(Expirable.DELETE_DAYS + 5)));
+        return player;
+    }
+
+    /**
+     * Return random search, for any role in every fifth case.
+     */
+    private static Search randomSearch(final Random random, final String id) {
+        final Search search = new Search();
+        search.setUserID(id);
+        search.setRole(random.nextInt(5) == 0 ? Role.ANY : ROLES[random.nextInt(ROLES.length)]);
+        search.setSr(random.nextInt(5001));
+        search.setRange(100 + random.nextInt(401));
+        search.setLastUpdate(LocalDate.now().minusDays(random.nextInt(Expirable.DELETE_DAYS + 5)));
+        return search;
+    }
+}
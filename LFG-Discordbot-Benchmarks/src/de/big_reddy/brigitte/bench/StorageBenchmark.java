@@ -0,0 +1,115 @@
+package de.big_reddy.brigitte.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.logger.LocalLog;
+import com.j256.ormlite.table.TableUtils;
+
+import de.big_reddy.brigitte.data.LogStorage;
+import de.big_reddy.brigitte.data.OrmliteStorage;
+import de.big_reddy.brigitte.data.SchemaMigration;
+import de.big_reddy.brigitte.data.Storage;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Writes of both {@link Storage} engines on files in a temporary directory:
+ * a flush of changed players and a single <code>!update</code> touch.
+ *
+ * @author Big_Reddy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+    /**
+     * Players per flush, as by default.
+     */
+    private static final int FLUSH_SIZE = 256;
+    private static final Role[] ROLES = { Role.TANK, Role.DPS, Role.SUPPORT, Role.FLEX };
+
+    @Param({ "h2", "log" })
+    public String engine;
+
+    private Path directory;
+    private JdbcConnectionSource connectionSource;
+    private Storage storage;
+    private final List<Player> flush = new ArrayList<>();
+    private List<Search> touch;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        System.setProperty(LocalLog.LOCAL_LOG_LEVEL_PROPERTY, "ERROR");
+        this.directory = Files.createTempDirectory("brigitte-storage");
+        if (this.engine.equals("log")) {
+            this.storage = new LogStorage(this.directory);
+        } else {
+            this.connectionSource = new JdbcConnectionSource("jdbc:h2:file:" + this.directory + "/bench");
+            TableUtils.createTableIfNotExists(this.connectionSource, Player.class);
+            TableUtils.createTableIfNotExists(this.connectionSource, Search.class);
+            SchemaMigration.migrate(this.connectionSource);
+            this.storage = new OrmliteStorage(this.connectionSource);
+        }
+        this.storage.load(p -> {}, s -> {});
+        for (int i = 0; i < FLUSH_SIZE; i++) {
+            final Player player = new Player(Long.toString(100000000000000000L + i));
+            player.setRole(ROLES[i % ROLES.length]);
+            player.setSr(1 + 17 * i % 4999);
+            player.setDescription("Looking for a team, " + i);
+            this.flush.add(player);
+        }
+        final Search search = new Search();
+        search.setUserID(this.flush.get(0).getUserID());
+        this.touch = Collections.singletonList(search);
+        this.storage.createSearches(this.touch);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        this.storage.close();
+        if (this.connectionSource != null) {
+            this.connectionSource.close();
+        }
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Collections.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void flushPlayers() throws Exception {
+        this.storage.savePlayers(this.flush);
+    }
+
+    @Benchmark
+    public void touchSearch() throws Exception {
+        this.touch.get(0).setLastUpdate(LocalDate.now());
+        this.storage.updateSearches(this.touch);
+    }
+}
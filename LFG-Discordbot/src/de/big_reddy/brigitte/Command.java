@@ -0,0 +1,149 @@
+package de.big_reddy.brigitte;
+
+import de.big_reddy.brigitte.data.models.Role;
+
+/**
+ * Typed private message command as produced by {@link CommandParser}. <br>
+ * Values not given by the user are <code>null</code> respectively -1.
+ *
+ * @author Big_Reddy
+ *
+ */
+public final class Command {
+    /**
+     * Kinds of commands, with their keyword following the '!'.
+     */
+    public enum Type {
+        SEARCH("search"),
+        UPDATE("update"),
+        DELETE("delete"),
+        HELP("help"),
+        SR("sr"),
+        ROLE("role"),
+        DESCRIPTION("description"),
+        NEXT("next"),
+        PREV("prev"),
+        /**
+         * Message is no command at all.
+         */
+        NONE(null);
+
+        private final String keyword;
+
+        private Type(final String keyword) {
+            this.keyword = keyword;
+        }
+
+        /**
+         * @return Keyword of command, <code>null</code> for {@link Type#NONE}
+         */
+        public String getKeyword() {
+            return this.keyword;
+        }
+    }
+
+    static final Command NONE = new Command(Type.NONE);
+    static final Command UPDATE = new Command(Type.UPDATE);
+    static final Command DELETE = new Command(Type.DELETE);
+    static final Command HELP = new Command(Type.HELP);
+    static final Command NEXT = new Command(Type.NEXT);
+    static final Command PREV = new Command(Type.PREV);
+
+    private final Type type;
+    private Role role;
+    private int sr = -1;
+    private int range = -1;
+    private int limit = -1;
+    private boolean notify;
+    private boolean delete;
+    private String text;
+
+    Command(final Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @return the type
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return Role given by -role or !role, <code>null</code> if none
+     */
+    public Role getRole() {
+        return this.role;
+    }
+
+    void setRole(final Role role) {
+        this.role = role;
+    }
+
+    /**
+     * @return SR given by -sr or !sr, -1 if none
+     */
+    public int getSr() {
+        return this.sr;
+    }
+
+    void setSr(final int sr) {
+        this.sr = sr;
+    }
+
+    /**
+     * @return Range given by -range, -1 if none
+     */
+    public int getRange() {
+        return this.range;
+    }
+
+    void setRange(final int range) {
+        this.range = range;
+    }
+
+    /**
+     * @return Number of closest players requested by -limit, -1 if none
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    void setLimit(final int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return If -notify is given
+     */
+    public boolean isNotify() {
+        return this.notify;
+    }
+
+    void setNotify(final boolean notify) {
+        this.notify = notify;
+    }
+
+    /**
+     * @return If -delete is given
+     */
+    public boolean isDelete() {
+        return this.delete;
+    }
+
+    void setDelete(final boolean delete) {
+        this.delete = delete;
+    }
+
+    /**
+     * @return Text given by !description or words given by -text, <code>null</code>
+     *         if none
+     */
+    public String getText() {
+        return this.text;
+    }
+
+    void setText(final String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,307 @@
+package de.big_reddy.brigitte;
+
+import java.text.ParseException;
+
+import de.big_reddy.brigitte.Command.Type;
+import de.big_reddy.brigitte.data.Words;
+import de.big_reddy.brigitte.data.models.Role;
+
+/**
+ * Single pass parser of private message commands. <br>
+ * Works on the raw message content without regular expressions or
+ * intermediate strings, only the resulting {@link Command} (and the text of a
+ * description) is allocated. Malformed commands are reported by a
+ * {@link ParseException} carrying the reply for the user and the offset of
+ * the offending character.
+ *
+ * @author Big_Reddy
+ *
+ */
+public final class CommandParser {
+    /**
+     * Roles a user may choose.
+     */
+    private static final Role[] ROLES = { Role.TANK, Role.DPS, Role.SUPPORT, Role.FLEX };
+    /**
+     * Cached, as {@link Type#values()} copies on every call.
+     */
+    private static final Type[] TYPES = Type.values();
+    /**
+     * Highest valid sr.
+     */
+    private static final int MAX_SR = 5000;
+    /**
+     * Highest number of closest players to request, more would not fit in one
+     * message.
+     */
+    private static final int MAX_LIMIT = 25;
+    /**
+     * Start of the error message of an unknown command.
+     */
+    static final String UNKNOWN_COMMAND = "*Unknown command:* ";
+
+    private CommandParser() {}
+
+    /**
+     * Parse given message content.
+     *
+     * @param content
+     *            Raw content of message
+     * @return Parsed command, {@link Type#NONE} if message is no command
+     * @throws ParseException
+     *             Thrown if message is a malformed command
+     */
+    public static Command parse(final String content) throws ParseException {
+        final int start = skipWhitespace(content, 0);
+        if (start == content.length() || content.charAt(start) != '!') return Command.NONE;
+        final int end = endOfWord(content, start + 1);
+        final Type type = type(content, start + 1, end);
+        if (type == null) throw new ParseException(UNKNOWN_COMMAND + content.substring(start, end), start);
+        switch (type) {
+            case SEARCH:
+                return parseSearch(content, end);
+            case UPDATE:
+                return Command.UPDATE;
+            case DELETE:
+                return Command.DELETE;
+            case HELP:
+                return Command.HELP;
+            case NEXT:
+                return Command.NEXT;
+            case PREV:
+                return Command.PREV;
+            case SR: {
+                final int valueStart = valueStart(content, end, "!sr");
+                final int valueEnd = trimEnd(content, valueStart);
+                final int sr = number(content, valueStart, valueEnd);
+                if (sr <= 0 || sr >= MAX_SR)
+                    throw new ParseException("*Expected a number [0-5000]:* " + content.substring(valueStart, valueEnd),
+                            valueStart);
+                final Command command = new Command(Type.SR);
+                command.setSr(sr);
+                return command;
+            }
+            case ROLE: {
+                final int valueStart = valueStart(content, end, "!role");
+                final int valueEnd = trimEnd(content, valueStart);
+                final Role role = role(content, valueStart, valueEnd);
+                if (role == null)
+                    throw new ParseException("*Unknown role:* " + content.substring(valueStart, valueEnd), valueStart);
+                final Command command = new Command(Type.ROLE);
+                command.setRole(role);
+                return command;
+            }
+            case DESCRIPTION: {
+                final Command command = new Command(Type.DESCRIPTION);
+                command.setText(content.substring(valueStart(content, end, "!description")));
+                return command;
+            }
+            default:
+                return Command.NONE;
+        }
+    }
+
+    /**
+     * Parse flags of a search command.
+     *
+     * @param content
+     *            Raw content of message
+     * @param pos
+     *            Offset behind the command keyword
+     * @return Parsed search command
+     * @throws ParseException
+     *             Thrown if a flag is malformed
+     */
+    private static Command parseSearch(final String content, int pos) throws ParseException {
+        final Command command = new Command(Type.SEARCH);
+        int limitPos = -1;
+        int textPos = -1;
+        pos = skipWhitespace(content, pos);
+        while (pos < content.length()) {
+            if (content.charAt(pos) != '-')
+                throw new ParseException("*Expected a flag, given* " + content.substring(pos, endOfWord(content, pos)),
+                        pos);
+            final int flagStart = pos + 1;
+            final int flagEnd = endOfWord(content, flagStart);
+            final int valueStart = skipWhitespace(content, flagEnd);
+            final int valueEnd = endOfWord(content, valueStart);
+            // Flags without value do not consume the following word
+            pos = valueEnd;
+            if (isFlag(content, flagStart, flagEnd, "role")) {
+                if (valueStart == valueEnd)
+                    throw new ParseException("-role *flag expects a role as second parameter, given non*", valueStart);
+                final Role role = role(content, valueStart, valueEnd);
+                if (role == null)
+                    throw new ParseException(content.substring(valueStart, valueEnd) + " *is no valid role*",
+                            valueStart);
+                command.setRole(role);
+            } else if (isFlag(content, flagStart, flagEnd, "sr")) {
+                if (valueStart == valueEnd)
+                    throw new ParseException(
+                            "-sr *flag expects a number between* 0 *and* 5000 *as second parameter, given non*",
+                            valueStart);
+                final int sr = number(content, valueStart, valueEnd);
+                if (sr < 0 || sr > MAX_SR)
+                    throw new ParseException("-sr *flag expects a number between* 0 *and* 5000*, given* "
+                            + content.substring(valueStart, valueEnd), valueStart);
+                command.setSr(sr);
+            } else if (isFlag(content, flagStart, flagEnd, "range")) {
+                if (valueStart == valueEnd)
+                    throw new ParseException("-range *flag expects a number as second parameter, given non*",
+                            valueStart);
+                final int range = number(content, valueStart, valueEnd);
+                if (range < 0)
+                    throw new ParseException(
+                            "-range *flag expects a number, given* " + content.substring(valueStart, valueEnd),
+                            valueStart);
+                command.setRange(range);
+            } else if (isFlag(content, flagStart, flagEnd, "limit")) {
+                final int limit = number(content, valueStart, valueEnd);
+                if (limit < 1 || limit > MAX_LIMIT)
+                    throw new ParseException("-limit *flag expects a number between* 1 *and* " + MAX_LIMIT
+                            + "*, given* " + content.substring(valueStart, valueEnd), valueStart);
+                command.setLimit(limit);
+                limitPos = flagStart - 1;
+            } else if (isFlag(content, flagStart, flagEnd, "delete")) {
+                if (command.isNotify())
+                    throw new ParseException("-delete *and* -notify *are exclusive.\nYou may not use both*",
+                            flagStart - 1);
+                command.setDelete(true);
+                pos = flagEnd;
+            } else if (isFlag(content, flagStart, flagEnd, "notify")) {
+                if (command.isDelete())
+                    throw new ParseException("-delete *and* -notify *are exclusive.\nYou may not use both*",
+                            flagStart - 1);
+                command.setNotify(true);
+                pos = flagEnd;
+            } else if (isFlag(content, flagStart, flagEnd, "text")) {
+                // Words up to the next flag, which may contain '-' themselves
+                final int textEnd = endOfText(content, valueStart);
+                final String text = content.substring(valueStart, textEnd);
+                if (Words.split(text).length == 0)
+                    throw new ParseException("-text *flag expects words as second parameter, given non*", valueStart);
+                command.setText(text);
+                textPos = flagStart - 1;
+                pos = textEnd;
+            } else
+                throw new ParseException("*Unknown flag:* " + content.substring(flagStart, flagEnd), flagStart);
+            pos = skipWhitespace(content, pos);
+        }
+        if (limitPos >= 0 && command.getSr() == -1)
+            throw new ParseException("-limit *flag expects* -sr *to rank players by*", limitPos);
+        // A saved search notifies within its range, not of the closest players
+        if (limitPos >= 0 && command.isNotify())
+            throw new ParseException("-limit *can not be used with* -notify", limitPos);
+        if (textPos >= 0 && (limitPos >= 0 || command.isNotify()))
+            throw new ParseException("-text *can not be used with* -limit *or* -notify", textPos);
+        return command;
+    }
+
+    /**
+     * @return Command type with keyword between given offsets, <code>null</code>
+     *         if none
+     */
+    private static Type type(final String content, final int start, final int end) {
+        for (final Type type : TYPES) {
+            if (type.getKeyword() != null && isFlag(content, start, end, type.getKeyword())) return type;
+        }
+        return null;
+    }
+
+    /**
+     * @return If content between given offsets equals given name
+     */
+    private static boolean isFlag(final String content, final int start, final int end, final String name) {
+        return end - start == name.length() && content.startsWith(name, start);
+    }
+
+    /**
+     * @return Role named between given offsets, ignoring case,
+     *         <code>null</code> if none
+     */
+    private static Role role(final String content, final int start, final int end) {
+        for (final Role role : ROLES) {
+            final String identifier = role.toString();
+            if (end - start == identifier.length() && content.regionMatches(true, start, identifier, 0, end - start))
+                return role;
+        }
+        return null;
+    }
+
+    /**
+     * @return Non negative decimal number between given offsets, -1 if it is
+     *         none or exceeds int
+     */
+    private static int number(final String content, final int start, final int end) {
+        if (start == end) return -1;
+        int returnV = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = content.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || returnV > (Integer.MAX_VALUE - digit) / 10) return -1;
+            returnV = returnV * 10 + digit;
+        }
+        return returnV;
+    }
+
+    /**
+     * Return offset of value of a profile command.
+     *
+     * @throws ParseException
+     *             Thrown if command has no value
+     */
+    private static int valueStart(final String content, final int end, final String command)
+            throws ParseException {
+        final int returnV = skipWhitespace(content, end);
+        if (returnV == content.length())
+            throw new ParseException(command + " *expects a value, given non*", returnV);
+        return returnV;
+    }
+
+    /**
+     * @return Offset of first non whitespace character at or after given one
+     */
+    private static int skipWhitespace(final String content, int pos) {
+        while (pos < content.length() && Character.isWhitespace(content.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return Offset behind the last word before the next word starting with
+     *         '-' at or after given offset
+     */
+    private static int endOfText(final String content, int pos) {
+        int returnV = pos;
+        while (pos < content.length() && content.charAt(pos) != '-') {
+            while (pos < content.length() && !Character.isWhitespace(content.charAt(pos))) {
+                pos++;
+            }
+            returnV = pos;
+            pos = skipWhitespace(content, pos);
+        }
+        return returnV;
+    }
+
+    /**
+     * @return Offset of first whitespace or '-' at or after given one
+     */
+    private static int endOfWord(final String content, int pos) {
+        while (pos < content.length() && !Character.isWhitespace(content.charAt(pos)) && content.charAt(pos) != '-') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @return Offset behind last non whitespace character at or after given
+     *         one
+     */
+    private static int trimEnd(final String content, final int start) {
+        int end = content.length();
+        while (end > start && Character.isWhitespace(content.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,148 @@
+package de.big_reddy.brigitte;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor for user commands, running them off the event thread. <br>
+ * Commands are spread over a fixed number of single threaded lanes by user id,
+ * so commands of one user run in order of submission while different users are
+ * served concurrently. Each lane has a bounded queue, commands exceeding it
+ * are rejected.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class CommandPipeline {
+    /**
+     * Single threaded executors, one per lane.
+     */
+    private final ThreadPoolExecutor[] lanes;
+    /**
+     * Number of accepted commands.
+     */
+    private final AtomicLong accepted = new AtomicLong();
+    /**
+     * Number of commands rejected due to a full lane.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+    /**
+     * Highest queue depth of a single lane seen on submission.
+     */
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Constructor of {@link CommandPipeline}.
+     *
+     * @param laneCount
+     *            Number of lanes (threads) to run commands on
+     * @param capacity
+     *            Number of commands a lane may queue before rejecting
+     */
+    public CommandPipeline(final int laneCount, final int capacity) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(capacity), r -> {
+                        final Thread thread = new Thread(r, "command-lane-" + threadCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    /**
+     * Queue given command of given user. Commands of the same user are run in
+     * order of submission.
+     *
+     * @param userID
+     *            Discord-ID of user issuing the command
+     * @param command
+     *            Command to run
+     * @return If the command got queued, false if the lane is full
+     */
+    public boolean submit(final String userID, final Runnable command) {
+        final ThreadPoolExecutor lane = this.lanes[Math.floorMod(userID.hashCode(), this.lanes.length)];
+        try {
+            lane.execute(() -> {
+                try {
+                    command.run();
+                } catch (final RuntimeException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            if (this.rejected.getAndIncrement() % 100 == 0) {
+                System.out.println("Command pipeline full, rejected commands: " + this.rejected.get());
+            }
+            return false;
+        }
+        this.accepted.incrementAndGet();
+        this.maxDepth.accumulateAndGet(lane.getQueue().size(), Math::max);
+        return true;
+    }
+
+    /**
+     * @return Number of accepted commands
+     */
+    public long getAccepted() {
+        return this.accepted.get();
+    }
+
+    /**
+     * @return Number of commands rejected due to a full lane
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    /**
+     * @return Number of commands currently waiting in all lanes
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (final ThreadPoolExecutor lane : this.lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return Highest queue depth of a single lane seen so far
+     */
+    public int getMaxQueueDepth() {
+        return this.maxDepth.get();
+    }
+
+    /**
+     * Stop accepting commands and wait for queued ones to finish.
+     *
+     * @param timeout
+     *            Maximum time to wait per lane
+     * @param unit
+     *            Unit of timeout
+     */
+    public void shutdown(final long timeout, final TimeUnit unit) {
+        for (final ThreadPoolExecutor lane : this.lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (final ThreadPoolExecutor lane : this.lanes) {
+                lane.awaitTermination(timeout, unit);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("accepted=%d rejected=%d queued=%d maxQueued=%d", this.getAccepted(),
+                this.getRejected(), this.getQueueDepth(), this.getMaxQueueDepth());
+    }
+}
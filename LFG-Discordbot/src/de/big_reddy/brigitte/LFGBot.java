@@ -1,102 +1,270 @@
 package de.big_reddy.brigitte;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.text.ParseException;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.stream.Collectors;
-
-import javax.security.auth.login.LoginException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import de.big_reddy.brigitte.OutboundScheduler.Priority;
 import de.big_reddy.brigitte.data.DatabaseManager;
 import de.big_reddy.brigitte.data.models.Player;
-import de.big_reddy.brigitte.data.models.Role;
 import de.big_reddy.brigitte.data.models.Search;
-import net.dv8tion.jda.core.AccountType;
-import net.dv8tion.jda.core.JDA;
-import net.dv8tion.jda.core.JDABuilder;
-import net.dv8tion.jda.core.OnlineStatus;
-import net.dv8tion.jda.core.entities.PrivateChannel;
-import net.dv8tion.jda.core.events.Event;
-import net.dv8tion.jda.core.events.message.MessageReceivedEvent;
-import net.dv8tion.jda.core.events.message.priv.PrivateMessageReceivedEvent;
-import net.dv8tion.jda.core.hooks.EventListener;
+import de.big_reddy.brigitte.metrics.Histogram;
+import de.big_reddy.brigitte.metrics.Metrics;
+import de.big_reddy.brigitte.transport.Transport;
 
 /**
  *
  * @author Big_Reddy
  *
  */
-public class LFGBot implements EventListener {
-    private final JDABuilder builder = new JDABuilder(AccountType.BOT);
-    private final JDA jda;
+public class LFGBot implements Transport.Listener {
+    /**
+     * Number of threads handling commands. <br>
+     * System property <code>brigitte.pipeline.lanes</code>, defaults to number
+     * of cores.
+     */
+    private static final int PIPELINE_LANES = Integer.getInteger("brigitte.pipeline.lanes",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * Number of commands each thread may queue before new ones get rejected.
+     * <br>
+     * System property <code>brigitte.pipeline.capacity</code>, defaults to 64.
+     */
+    private static final int PIPELINE_CAPACITY = Integer.getInteger("brigitte.pipeline.capacity", 64);
+    /**
+     * Commands answered in guild channels, all others only in private.
+     */
+    private static final Set<Command.Type> CHANNEL_COMMANDS = EnumSet.of(Command.Type.SEARCH, Command.Type.NEXT,
+            Command.Type.PREV, Command.Type.HELP);
+    /**
+     * Seconds to collect player updates before notifying a searching user.
+     * <br>
+     * System property <code>brigitte.notify.window</code>, defaults to 60.
+     */
+    private static final int NOTIFY_WINDOW = Integer.getInteger("brigitte.notify.window", 60);
+    /**
+     * Messages per second sent over all users. <br>
+     * System property <code>brigitte.outbound.rate</code>, defaults to 45.
+     */
+    private static final int OUTBOUND_RATE = Integer.getInteger("brigitte.outbound.rate", 45);
+    /**
+     * Messages a single user may receive at once, refilling with one per
+     * second. <br>
+     * System property <code>brigitte.outbound.burst</code>, defaults to 5.
+     */
+    private static final int OUTBOUND_BURST = Integer.getInteger("brigitte.outbound.burst", 5);
+    /**
+     * Number of messages waiting per priority before further ones are dropped.
+     * <br>
+     * System property <code>brigitte.outbound.capacity</code>, defaults to
+     * 10000.
+     */
+    private static final int OUTBOUND_CAPACITY = Integer.getInteger("brigitte.outbound.capacity", 10000);
+    /**
+     * Maximum number of players shown per search result page. <br>
+     * System property <code>brigitte.search.pageSize</code>, defaults to 10.
+     */
+    private static final int PAGE_SIZE = Integer.getInteger("brigitte.search.pageSize", 10);
+    /**
+     * Minutes a user may continue browsing search results with !next and
+     * !prev. <br>
+     * System property <code>brigitte.search.pageTtl</code>, defaults to 15.
+     */
+    private static final int PAGE_TTL = Integer.getInteger("brigitte.search.pageTtl", 15);
+
+    private final Transport transport;
+    /**
+     * Runs commands off the event thread, in order per user.
+     */
+    private final CommandPipeline pipeline = new CommandPipeline(PIPELINE_LANES, PIPELINE_CAPACITY);
+    /**
+     * Last message sent by {@link LFGBot#sendMessage(String, String, Priority)}
+     * by Discord-ID of receiver. Cleared as soon as the user writes again.
+     */
+    private final Map<String, String> lastSent = new ConcurrentHashMap<>();
+    /**
+     * Paces all outgoing messages below Discord's rate limits.
+     */
+    private final OutboundScheduler outbound = new OutboundScheduler(OUTBOUND_RATE, OUTBOUND_BURST, 1,
+            OUTBOUND_CAPACITY);
+    /**
+     * Merges notifications about new players of interest per searching user.
+     */
+    private final NotificationBatcher notifications = new NotificationBatcher(
+            (id, message) -> this.sendMessage(id, message, Priority.NOTIFY), NOTIFY_WINDOW, TimeUnit.SECONDS);
+    /**
+     * Cursors of users browsing search results.
+     */
+    private final ResultPager pager = new ResultPager(PAGE_SIZE, PAGE_TTL, TimeUnit.MINUTES);
+    /**
+     * Handling time of commands by {@link Command.Type}.
+     */
+    private final Map<Command.Type, Histogram> commandTimers = new EnumMap<>(Command.Type.class);
+    /**
+     * Handling time of malformed commands.
+     */
+    private final Histogram invalidCommands = Metrics.timer("command", "invalid");
+    /**
+     * Number of searches notified per player update.
+     */
+    private final Histogram fanOut = Metrics.histogram("notify", "fanOut");
 
     /**
      * Constructor of {@link LFGBot}. <br>
-     * Initializes vital bot api and my fail, if not possible.
+     * Connects through given transport and may fail, if not possible.
      *
-     * @param botToken
-     *            Token of application this bot shall connect to
-     */
-    public LFGBot(final String botToken) {
-        this.builder.setToken(botToken);
-        this.builder.setAutoReconnect(true);
-        this.builder.setStatus(OnlineStatus.ONLINE);
-        this.builder.addEventListener(this);
+     * @param transport
+     *            Chat backend to talk through
+     */
+    public LFGBot(final Transport transport) {
+        this.transport = transport;
+        for (final Command.Type type : Command.Type.values()) {
+            this.commandTimers.put(type,
+                    Metrics.timer("command", type.getKeyword() == null ? "none" : type.getKeyword()));
+        }
+        for (final Priority priority : Priority.values()) {
+            Metrics.gauge("outbound", priority.name().toLowerCase(), () -> this.outbound.getQueueDepth(priority));
+        }
+        Metrics.gauge("pipeline", "queued", this.pipeline::getQueueDepth);
+        Metrics.gauge("pipeline", "rejected", this.pipeline::getRejected);
+        this.transport.connect(this);
+    }
 
-        // Login attempt: if it fails end program
-        try {
-            this.jda = this.builder.buildBlocking();
-        } catch (LoginException | InterruptedException e) {
-            e.printStackTrace();
-            throw new RuntimeException();
+    /**
+     * Called upon on an incoming private message, queues it for
+     * {@link LFGBot#onMessageReceived(String, String)}.
+     *
+     * @param id
+     *            ID of author
+     * @param message
+     *            Raw content of message
+     */
+    @Override
+    public void onPrivateMessage(final String id, final String message) {
+        if (!this.pipeline.submit(id, () -> this.onMessageReceived(id, message))) {
+            this.outbound.submit(Priority.REPLY, id,
+                    () -> this.deliverReply(id, "*Too many requests, please try again later*"));
         }
     }
 
     /**
-     * @see net.dv8tion.jda.core.hooks.EventListener#onEvent(net.dv8tion.jda.core.
-     *      events.Event)
+     * Called upon on an incoming message in a guild text channel, queues it
+     * for {@link LFGBot#onChannelCommand(String, String, String)}.
+     *
+     * @param channelID
+     *            ID of channel
+     * @param id
+     *            ID of author
+     * @param message
+     *            Raw content of message
      */
     @Override
-    public void onEvent(final Event event) {
-        // Private channel
-        if (event instanceof PrivateMessageReceivedEvent) {
-            this.onMessageReceived((PrivateMessageReceivedEvent) event);
+    public void onChannelMessage(final String channelID, final String id, final String message) {
+        if (!this.pipeline.submit(id, () -> this.onChannelCommand(channelID, id, message))) {
+            this.outbound.submit(Priority.REPLY, channelID, () -> this.transport.sendToChannel(channelID,
+                    "<@" + id + ">\n*Too many requests, please try again later*", e -> {}));
         }
-        // Server channel
-        if (event instanceof MessageReceivedEvent) {}
     }
 
     /**
      * Handles all profile and search request interactions with user.
      *
-     * @param event
-     *            Event containing all data needed
-     */
-    public void onMessageReceived(final PrivateMessageReceivedEvent event) {
-        if (event.getAuthor().isBot()) return;
-        final String message = event.getMessage().getContentRaw();
-        final String id = event.getAuthor().getId();
-        final List<String> answer = new ArrayList<>();
-
-        //
-        if (message.startsWith("!search")) {
-            answer.add(this.onSearch(id, message.replaceFirst("!search\\s*", "")));
-        } else if (message.startsWith("!update")) {
-            answer.add(this.update(id));
-        } else if (message.startsWith("!delete")) {
-            answer.add(this.delete(id));
-        } else if (message.startsWith("!help")) {
-            answer.add(this.help());
-        } else if (message.startsWith("!")) {
-            answer.add(this.profileUpdate(id, message));
-        } else {
-            answer.add("Try !help");
-        }
-        final String reply = answer.stream().collect(Collectors.joining("\n"));
+     * @param id
+     *            ID of author
+     * @param message
+     *            Raw content of message
+     */
+    public void onMessageReceived(final String id, final String message) {
+        this.lastSent.remove(id);
+        final String reply = this.answer(id, message, false);
 
         // Fail save
         if (reply.isEmpty()) return;
-        event.getChannel().sendMessage(reply).queue();
+        this.outbound.submit(Priority.REPLY, id, () -> this.deliverReply(id, reply));
+    }
+
+    /**
+     * Handles search requests in a guild text channel, answering in the
+     * channel.
+     *
+     * @param channelID
+     *            ID of channel
+     * @param id
+     *            ID of author
+     * @param message
+     *            Raw content of message
+     */
+    public void onChannelCommand(final String channelID, final String id, final String message) {
+        final String reply = this.answer(id, message, true);
+        if (reply.isEmpty()) return;
+        final String answer = "<@" + id + ">\n" + reply;
+        // Channels have rate limits of their own, so they are routes too
+        this.outbound.submit(Priority.REPLY, channelID, () -> this.transport.sendToChannel(channelID, answer,
+                e -> System.out.println("Could not send to channel " + channelID + ": " + e)));
+    }
+
+    /**
+     * Run given command and return the reply.
+     *
+     * @param id
+     *            ID of author
+     * @param message
+     *            Raw content of message
+     * @param inChannel
+     *            If the command was given in a guild channel, where only
+     *            searches are answered and other messages are ignored
+     * @return Reply, empty if none
+     */
+    private String answer(final String id, final String message, final boolean inChannel) {
+        final long start = System.nanoTime();
+        String reply;
+        try {
+            final Command command = CommandParser.parse(message);
+            if (inChannel && !CHANNEL_COMMANDS.contains(command.getType())) {
+                return command.getType() == Command.Type.NONE ? ""
+                        : "*Please send me this command as private message*";
+            }
+            switch (command.getType()) {
+                case SEARCH:
+                    reply = this.onSearch(id, command);
+                    break;
+                case UPDATE:
+                    reply = this.update(id);
+                    break;
+                case DELETE:
+                    reply = this.delete(id);
+                    break;
+                case HELP:
+                    reply = this.help();
+                    break;
+                case NEXT:
+                    reply = this.pager.next(id);
+                    break;
+                case PREV:
+                    reply = this.pager.prev(id);
+                    break;
+                case SR:
+                case ROLE:
+                case DESCRIPTION:
+                    reply = this.profileUpdate(id, command);
+                    break;
+                default:
+                    reply = "Try !help";
+            }
+            this.commandTimers.get(command.getType()).recordSince(start);
+        } catch (final ParseException e) {
+            // Commands of other bots are no business in a channel
+            if (inChannel && e.getMessage().startsWith(CommandParser.UNKNOWN_COMMAND)) return "";
+            reply = e.getMessage() + "\n*(at character " + (e.getErrorOffset() + 1) + ")*";
+            this.invalidCommands.recordSince(start);
+        }
+        return reply;
     }
 
     /**
@@ -110,7 +278,7 @@ public class LFGBot implements EventListener {
         try {
             DatabaseManager.inst().deletePlayer(id);
             DatabaseManager.inst().deleteSearches(id);
-        } catch (final SQLException e) { {
+        } catch (final SQLException e) {
             // Should never occur
             e.printStackTrace();
             return "***Could not delete entry.\nPlease contact administrator.***";
@@ -132,79 +300,41 @@ public class LFGBot implements EventListener {
 
     /**
      * Return message containing all {@link Player players} applicable to
-     * parameters in given message.
+     * parameters of given command.
      *
-     * @param message
-     *            Contains parameters for search.
+     * @param id
+     *            ID of searching user
+     * @param command
+     *            Parsed search command
      * @return All players applicable to given parameters
      */
-    private String onSearch(final String id, final String message) {
+    private String onSearch(final String id, final Command command) {
         final Search search = new Search();
         search.setUserID(id);
-        boolean save = false;
-        boolean delete = false;
-        for (final String parameter : message.split("\\s*-")) {
-            if (parameter.isEmpty()) {
-                continue;
-            }
-            final String[] temp = parameter.split("\\s+", 2);
-            switch (temp[0]) {
-                case "role":
-                    if (temp.length < 2) return "-role *flag expects a role as second parameter, given non*";
-                    final Role r = Role.getRoleByIdentifier(temp[1]);
-                    if (r == null) return temp[1] + " *is no valid role*";
-                    search.setRole(r);
-                    break;
-                case "sr":
-                    try {
-                        if (temp.length < 2)
-                            return "-sr *flag expects a number between* 0 *and* 5000 *as second parameter, given non*";
-                        final int sr = Integer.parseInt(temp[1]);
-                        if (sr < 0 || sr > 5000) throw new IllegalArgumentException();
-                        search.setSr(sr);
-                    } catch (final IllegalArgumentException e) {
-                        return "-sr *flage expects a number between* 0 *and* 5000*, given* " + temp[1];
-                    }
-                    break;
-                case "range":
-                    try {
-                        if (temp.length < 2) return "-range *flag expects a number as second parameter, given non*";
-                        search.setRange(Integer.parseInt(temp[1]));
-                    } catch (final IllegalArgumentException e) {
-                        return "-range *flage expects a number, given* " + temp[1];
-                    }
-                    break;
-                case "delete":
-                    if (save) return "-delete *and* -notify *are exclusive.\nYou may not use both*";
-                    delete = true;
-                    break;
-                case "notify":
-                    if (delete) return "-delete *and* -notify *are exclusive.\nYou may not use both*";
-                    save = true;
-                    break;
-                default:
-                    return "*Unknown flag:* " + temp[0];
-            }
+        if (command.getRole() != null) {
+            search.setRole(command.getRole());
+        }
+        if (command.getSr() != -1) {
+            search.setSr(command.getSr());
         }
+        if (command.getRange() != -1) {
+            search.setRange(command.getRange());
+        }
+        final boolean save = command.isNotify();
 
-        if (delete) {
+        if (command.isDelete()) {
             try {
                 DatabaseManager.inst().deleteSearches(id);
                 return "*Search(es) deleted.*";
-            } catch (final SQLException e) { {
+            } catch (final SQLException e) {
                 // Should never occur
                 e.printStackTrace();
                 return "***Could not delete entry(s).\nPlease contact administrator.***";
             }
         }
 
-        final String returnV = //
-                DatabaseManager //
-                        .inst() //
-                        .getPlayers(search) //
-                        .stream() //
-                        .map(p -> p.toString()) //
-                        .collect(Collectors.joining("\n\n"));
+        final String returnV = command.getLimit() == -1 ? this.pager.first(search, command.getText())
+                : this.pager.ranked(search, command.getRange() != -1, command.getLimit());
 
         if (save) {
             try {
@@ -215,7 +345,7 @@ public class LFGBot implements EventListener {
             }
         }
 
-        return (returnV.isEmpty() ? "*No players found*" : returnV) + (save ? "\n\n*Search created*" : "");
+        return returnV + (save ? "\n*Search created*" : "");
     }
 
     /**
@@ -223,54 +353,40 @@ public class LFGBot implements EventListener {
      *
      * @param id
      *            Player to update data
-     * @param message
-     *            Contains command and data to update
+     * @param command
+     *            Parsed profile command with data to update
      * @return Summary of players profile
      */
-    private String profileUpdate(final String id, final String message) {
+    private String profileUpdate(final String id, final Command command) {
         final DatabaseManager db = DatabaseManager.inst();
-        Player player;
-        try {
-            player = db.getPlayerByID(id);
-        } catch (final SQLException e) {
-            // Should never occur
-            e.printStackTrace();
-            return "***Fatal error: user not found.***\n*Please contact administrator!*";
+        final Player player = db.getPlayerByID(id);
+        switch (command.getType()) {
+            case SR:
+                player.setSr(command.getSr());
+                break;
+            case ROLE:
+                player.setRole(command.getRole());
+                break;
+            case DESCRIPTION:
+                player.setDescription(command.getText());
+                break;
+            default:
+                throw new IllegalArgumentException(command.getType().name());
         }
-
-        String value = message.split("\\s+", 2)[1];
-
-        if (message.startsWith("!sr")) {
-            // !sr
-            try {
-                final int tempValue = Integer.parseInt(value);
-                if (tempValue >= 5000 || tempValue <= 0) throw new NumberFormatException();
-                player.setSr(tempValue);
-            } catch (final NumberFormatException e) {
-                return ("*Expected a number [0-5000]:* " + value);
-            }
-        } else if (message.startsWith("!role")) {
-            // !role
-            value = value.toLowerCase();
-            switch (value) {
-                case "tank":
-                case "dps":
-                case "support":
-                case "flex":
-                    player.setRole(Role.getRoleByIdentifier(value));
-                    break;
-                default:
-                    return "*Unknown role:* " + value;
-            }
-        } else if (message.startsWith("!description")) {
-            player.setDescription(value);
-        } else
-            return "*Unknown command:* " + message.split("\\s+")[0];
         db.updatePlayer(player);
         this.onPlayerUpdate(player);
         return player.toString();
     }
 
+    /**
+     * @param id
+     *            ID of Discord-User
+     * @return If given user is known to this bot and may be messaged
+     */
+    public boolean knowsUser(final String id) {
+        return this.transport.knowsUser(id);
+    }
+
     /**
      * Send given message to Discord-User with given id.
      *
@@ -278,19 +394,64 @@ public class LFGBot implements EventListener {
      *            ID of Discord-User
      * @param message
      *            Message to send
+     * @param priority
+     *            Priority of message towards other outgoing messages
      */
-    public void sendMessage(final String id, final String message) {
-        try {
-            final PrivateChannel channel = this.jda.getUserById(id).openPrivateChannel().complete();
-            if (!channel.getMessageById(channel.getLatestMessageId()).complete().getContentRaw().equals(message)) {
-                channel.sendMessage(message).queue();
-            }
-        } catch (final NullPointerException e) {
-            e.printStackTrace();
-            System.out.println("Could not send message to user: " + id);
+    public void sendMessage(final String id, final String message, final Priority priority) {
+        if (!this.transport.knowsUser(id)) {
+            this.onSendFailure(id, message, null);
+            return;
+        }
+        // Do not repeat the last message, if user did not write since
+        if (message.equals(this.lastSent.put(id, message))) return;
+        if (!this.outbound.submit(priority, id, () -> this.deliver(id, message))) {
+            this.onSendFailure(id, message, null);
         }
     }
 
+    /**
+     * Deliver given message to Discord-User with given id.
+     *
+     * @param id
+     *            ID of Discord-User
+     * @param message
+     *            Message to send
+     */
+    private void deliver(final String id, final String message) {
+        this.transport.send(id, message, e -> this.onSendFailure(id, message, e));
+    }
+
+    /**
+     * Deliver given answer to a command of Discord-User with given id.
+     *
+     * @param id
+     *            ID of Discord-User
+     * @param message
+     *            Message to send
+     */
+    private void deliverReply(final String id, final String message) {
+        this.transport.reply(id, message, e -> this.onSendFailure(id, message, e));
+    }
+
+    /**
+     * Log failed delivery of given message, allowing it to be sent again.
+     *
+     * @param id
+     *            ID of Discord-User
+     * @param message
+     *            Message that failed
+     * @param cause
+     *            Reason of failure, <code>null</code> if user is unknown or
+     *            message got dropped
+     */
+    private void onSendFailure(final String id, final String message, final Throwable cause) {
+        this.lastSent.remove(id, message);
+        if (cause != null) {
+            cause.printStackTrace();
+        }
+        System.out.println("Could not send message to user: " + id);
+    }
+
     /**
      * Called upon on player profile update.
      *
@@ -298,11 +459,11 @@ public class LFGBot implements EventListener {
      *            Player that got updated
      */
     private void onPlayerUpdate(final Player player) {
-        DatabaseManager.inst() //
-                .getSearches(player) //
-                .stream() //
+        final List<Search> searches = DatabaseManager.inst().getSearches(player);
+        this.fanOut.record(searches.size());
+        searches.stream() //
                 .map(Search::getUserID) //
-                .forEach(id -> this.sendMessage(id, "*New players of interest are available*"));
+                .forEach(id -> this.notifications.notify(id, player.getUserID()));
     }
 
     /**
@@ -319,16 +480,32 @@ public class LFGBot implements EventListener {
                 + "!search *Search for a player*\n" //
                 + "\t<-sr [0-5000]> *Searched SR (default all)*\n" //
                 + "\t<-range [0-5000]> *Searched SR range (default 300)*\n" //
+                + "\t<-limit [1-25]> *Show only the closest players to -sr*\n" //
                 + "\t<-role [...]> *Searched role (default any)*\n" //
+                + "\t<-text [words]> *Searched words in description*\n" //
                 + "\t<-notify> *Get notified if player of interest registers*\n" //
-                + "\t<-delete> *Delete all searches*\n";
+                + "\t<-delete> *Delete all searches*\n" //
+                + "!next *Show next page of search results*\n" //
+                + "!prev *Show previous page of search results*\n" //
+                + "\n" //
+                + "*!search, !next and !prev work in LFG channels of servers, too*\n";
+    }
+
+    /**
+     * @return Pipeline running the commands
+     */
+    public CommandPipeline getPipeline() {
+        return this.pipeline;
     }
 
     /**
      * Shuts down the bot.
      */
     public void shutdown() {
-        this.builder.setStatus(OnlineStatus.OFFLINE);
-        this.jda.shutdown();
+        this.pipeline.shutdown(5, TimeUnit.SECONDS);
+        DatabaseManager.inst().shutdown();
+        this.notifications.shutdown();
+        this.outbound.shutdown(5, TimeUnit.SECONDS);
+        this.transport.shutdown();
     }
 }
@@ -1,9 +1,18 @@
 package de.big_reddy.brigitte;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -11,9 +20,21 @@ import com.j256.ormlite.jdbc.JdbcConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 
+import de.big_reddy.brigitte.OutboundScheduler.Priority;
+import de.big_reddy.brigitte.data.BoundedConnectionSource;
 import de.big_reddy.brigitte.data.DatabaseManager;
+import de.big_reddy.brigitte.data.LogStorage;
+import de.big_reddy.brigitte.data.OrmliteStorage;
+import de.big_reddy.brigitte.data.SchemaMigration;
+import de.big_reddy.brigitte.data.models.Expirable;
 import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
 import de.big_reddy.brigitte.data.models.Search;
+import de.big_reddy.brigitte.metrics.Metrics;
+import de.big_reddy.brigitte.transport.JdaTransport;
+import de.big_reddy.brigitte.transport.SimulatedTransport;
+import de.big_reddy.brigitte.transport.SimulatedTransport.Message;
+import de.big_reddy.brigitte.transport.Transport;
 
 /**
  *
@@ -21,6 +42,65 @@ import de.big_reddy.brigitte.data.models.Search;
  *
  */
 public class Main {
+    /**
+     * Maximum number of database connections in use at once, the pool keeps
+     * as many idle connections. A value of <code>1</code> or less uses one
+     * single connection instead of a pool. <br>
+     * System property <code>brigitte.db.pool</code>, defaults to number of
+     * cores.
+     */
+    private static final int DB_POOL_SIZE = Integer.getInteger("brigitte.db.pool",
+            Runtime.getRuntime().availableProcessors());
+    /**
+     * Milliseconds a pooled connection may stay open, counted from opening
+     * and not from last use. Free connections older than this are closed by
+     * the pool's checker and connections in use once they are released. <br>
+     * System property <code>brigitte.db.maxAge</code>, defaults to 5 minutes.
+     */
+    private static final long DB_MAX_AGE = Long.getLong("brigitte.db.maxAge", TimeUnit.MINUTES.toMillis(5));
+    /**
+     * Milliseconds to wait for a free pooled connection before the statement
+     * fails. <br>
+     * System property <code>brigitte.db.wait</code>, defaults to 30 seconds.
+     */
+    private static final long DB_WAIT = Long.getLong("brigitte.db.wait", TimeUnit.SECONDS.toMillis(30));
+    /**
+     * Minutes between two checks for expired entries. A check only does work
+     * once a new day started, or while due entries are left from the previous
+     * one. <br>
+     * System property <code>brigitte.sweep.period</code>, defaults to 15.
+     */
+    private static final int SWEEP_PERIOD = Integer.getInteger("brigitte.sweep.period", 15);
+    /**
+     * Minutes between two metrics log lines, 0 to disable. <br>
+     * System property <code>brigitte.metrics.period</code>, defaults to 5.
+     */
+    private static final int METRICS_PERIOD = Integer.getInteger("brigitte.metrics.period", 5);
+    /**
+     * JDBC-URL of the database, e.g. of an H2 server shared by clustered
+     * nodes (<code>jdbc:h2:tcp://host/brigitte</code>). <br>
+     * System property <code>brigitte.db.url</code>, defaults to an embedded
+     * database in <code>rec/database/</code>, or an in-memory one if
+     * simulating.
+     */
+    private static final String DB_URL = System.getProperty("brigitte.db.url");
+    /**
+     * Storage engine: <code>h2</code> for a database through ORMLite,
+     * <code>log</code> for an append-only log in <code>rec/log/</code>, or a
+     * temporary directory if simulating. <br>
+     * System property <code>brigitte.storage</code>, defaults to
+     * <code>h2</code>.
+     */
+    private static final String STORAGE = System.getProperty("brigitte.storage", "h2");
+    /**
+     * If the indexes are saved to <code>rec/index.snapshot</code> on exit and
+     * restored from it on start, instead of loading the whole storage. Never
+     * used if simulating. If disabled, a snapshot left behind is deleted, as
+     * it misses the writes of this run. <br>
+     * System property <code>brigitte.snapshot</code>, defaults to true.
+     */
+    private static final boolean INDEX_SNAPSHOT = Boolean
+            .parseBoolean(System.getProperty("brigitte.snapshot", "true"));
 
     private static ScheduledExecutorService schedule;
     private static LFGBot bot;
@@ -30,61 +110,294 @@ public class Main {
      * Expects Discord Bot-Token.
      *
      * @param args
-     *            Has to contains a Discord Bot-token in first place
+     *            Has to contains a Discord Bot-token in first place, or
+     *            <code>simulate</code> to run against a
+     *            {@link SimulatedTransport} on a throwaway storage
      */
     public static void main(final String args[]) {
         if (args.length < 1) throw new Error("No bot token given!");
-        boolean dbReset = args.length > 1 && args[1].equals("reset");
+        final boolean dbReset = args.length > 1 && args[1].equals("reset");
         // Create bot
-        bot = new LFGBot(args[0]);
-
-        // Database initialization
+        final boolean simulated = args[0].equals("simulate");
+        final Transport transport = simulated ? new SimulatedTransport() : new JdaTransport(args[0]);
+        // Database initialization, while the bot logs in. Commands received
+        // meanwhile wait for it.
+        final FutureTask<Void> database = new FutureTask<>(() -> {
+            initStorage(dbReset, simulated);
+            return null;
+        });
+        new Thread(database, "database-init").start();
+        bot = new LFGBot(transport);
         try {
-            final File db = new File(new File("").getAbsolutePath() + "/rec/database/");
-            db.mkdirs();
-            final String databaseUrl = "jdbc:h2:file:" + db.getAbsolutePath() + "/brigitte.h2.db";
-            final ConnectionSource connectionSource = new JdbcConnectionSource(databaseUrl);
-            if (dbReset) {
-                TableUtils.dropTable(connectionSource, Player.class, true);
-                TableUtils.dropTable(connectionSource, Search.class, true);
-                dbReset = false;
-            }
-            TableUtils.createTableIfNotExists(connectionSource, Player.class);
-            TableUtils.createTableIfNotExists(connectionSource, Search.class);
-            DatabaseManager.init(connectionSource);
-        } catch (final SQLException e) {
+            database.get();
+        } catch (final InterruptedException | ExecutionException e) {
             e.printStackTrace();
+            transport.shutdown();
             throw new Error("Failed to initialize database");
         }
 
         // Auto-cleanup of database
         schedule = Executors.newScheduledThreadPool(1);
-        schedule.scheduleAtFixedRate(Main::dbCleanUp, 0, 1, TimeUnit.DAYS);
+        schedule.scheduleAtFixedRate(Main::dbCleanUp, 0, SWEEP_PERIOD, TimeUnit.MINUTES);
+        Metrics.gauge("db", "dirtyPlayers", DatabaseManager.inst()::getDirtyPlayers);
+        if (METRICS_PERIOD > 0) {
+            schedule.scheduleAtFixedRate(() -> System.out.println(Metrics.summary()), METRICS_PERIOD, METRICS_PERIOD,
+                    TimeUnit.MINUTES);
+        }
 
         // CMD control
         try (final Scanner sc = new Scanner(System.in)) {
             while (true) {
-                switch (sc.nextLine()) {
+                final String[] command = sc.nextLine().trim().split("\\s+");
+                switch (command[0]) {
                     case "exit":
+                        // Stop cleanup first, it writes to the database
+                        schedule.shutdown();
+                        try {
+                            schedule.awaitTermination(1, TimeUnit.MINUTES);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
                         bot.shutdown();
+                        return;
+                    case "metrics":
+                        System.out.print(Metrics.report());
+                        break;
+                    case "import":
+                        importSearches(command);
+                        break;
+                    case "explain":
+                        DatabaseManager.inst().getForms().stream().sorted().forEach(
+                                form -> System.out.println(form + ":\n" + DatabaseManager.inst().explain(form)));
+                        break;
+                    case "replay":
+                    case "load":
+                        if (transport instanceof SimulatedTransport) {
+                            simulate((SimulatedTransport) transport, command);
+                        } else {
+                            System.out.println("Only available with simulated transport.");
+                        }
                         break;
                     default:
                         System.out.println("Write >exit< to exit programm.");
+                        System.out.println("Write >metrics< to show metrics.");
+                        System.out.println("Write >explain< to show query plans.");
+                        System.out.println("Write >import [file]< to save searches, one per line.");
+                        if (transport instanceof SimulatedTransport) {
+                            System.out.println("Write >replay [rate] [file]< to replay recorded messages.");
+                            System.out.println("Write >load [rate] [count] [users]< to send synthetic messages.");
+                        }
                 }
             }
         }
     }
 
     /**
-     * Is called upon to clean the database for expired entries.
+     * Run a console command against the simulated transport and print its
+     * report.
+     *
+     * @param transport
+     *            Simulated transport the bot runs on
+     * @param command
+     *            Console command split by whitespace
+     */
+    private static void simulate(final SimulatedTransport transport, final String[] command) {
+        try {
+            final double rate = Double.parseDouble(command[1]);
+            final List<Message> messages = command[0].equals("replay")
+                    ? SimulatedTransport.load(Paths.get(command[2]))
+                    : SimulatedTransport.synthetic(Integer.parseInt(command[3]), Integer.parseInt(command[2]),
+                            System.nanoTime());
+            System.out.println(transport.replay(messages, rate, 30, TimeUnit.SECONDS));
+        } catch (final IOException | RuntimeException e) {
+            System.out.println("Could not simulate: " + e);
+        }
+    }
+
+    /**
+     * Save searches listed in given file, one per line as tab separated
+     * Discord-ID, role, sr and range. Lines with a sr or range
+     * <code>!search</code> would not accept are skipped. All searches are
+     * saved together, or none if one fails.
+     *
+     * @param command
+     *            Console command split by whitespace
+     */
+    private static void importSearches(final String[] command) {
+        try {
+            final List<Search> searches = new ArrayList<>();
+            int skipped = 0;
+            for (final String line : Files.readAllLines(Paths.get(command[1]), StandardCharsets.UTF_8)) {
+                final String[] fields = line.split("\t");
+                final Role role = fields.length == 4 && fields[1].equalsIgnoreCase("any") ? Role.ANY
+                        : fields.length == 4 ? Role.getRoleByIdentifier(fields[1]) : null;
+                if (role == null) {
+                    skipped++;
+                    continue;
+                }
+                final int sr;
+                final int range;
+                try {
+                    sr = Integer.parseInt(fields[2]);
+                    range = Integer.parseInt(fields[3]);
+                } catch (final NumberFormatException e) {
+                    skipped++;
+                    continue;
+                }
+                // Bounds of -sr and -range, a sr of -1 would match all
+                if (sr < 0 || sr > 5000 || range < 0) {
+                    skipped++;
+                    continue;
+                }
+                final Search search = new Search();
+                search.setUserID(fields[0]);
+                search.setRole(role);
+                search.setSr(sr);
+                search.setRange(range);
+                searches.add(search);
+            }
+            final long start = System.nanoTime();
+            DatabaseManager.inst().createSearches(searches);
+            System.out.println(String.format("Imported %d searches in %d ms, skipped %d lines", searches.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), skipped));
+        } catch (final IOException | SQLException | RuntimeException e) {
+            System.out.println("Could not import: " + e);
+        }
+    }
+
+    /**
+     * Open the storage chosen by {@link Main#STORAGE} and initialize
+     * {@link DatabaseManager} on it. <br>
+     * A simulation must not touch saved entries, it runs on an in-memory
+     * database or a temporary log without index snapshot.
+     *
+     * @param dbReset
+     *            If all saved entries shall be deleted first
+     * @param simulated
+     *            If the bot runs against a {@link SimulatedTransport}
+     * @throws SQLException
+     * @throws IOException
+     */
+    private static void initStorage(final boolean dbReset, final boolean simulated)
+            throws SQLException, IOException {
+        final Path snapshot = simulated ? null
+                : new File(new File("").getAbsolutePath() + "/rec/index.snapshot").toPath();
+        if (snapshot != null && (dbReset || !INDEX_SNAPSHOT)) {
+            snapshot.toFile().delete();
+        }
+        if (STORAGE.equals("log")) {
+            final File log = simulated ? Files.createTempDirectory("brigitte-log").toFile()
+                    : new File(new File("").getAbsolutePath() + "/rec/log/");
+            if (dbReset && log.isDirectory()) {
+                for (final File file : log.listFiles()) {
+                    file.delete();
+                }
+            }
+            DatabaseManager.init(new LogStorage(log.toPath()), INDEX_SNAPSHOT ? snapshot : null);
+        } else {
+            initDatabase(dbReset, INDEX_SNAPSHOT ? snapshot : null, simulated);
+        }
+    }
+
+    /**
+     * Open database, create and migrate its tables and initialize
+     * {@link DatabaseManager} on it.
+     *
+     * @param dbReset
+     *            If tables shall be dropped first
+     * @param snapshot
+     *            Index snapshot file, <code>null</code> if not used
+     * @param simulated
+     *            If an in-memory database is used, unless
+     *            {@link Main#DB_URL} is given
+     * @throws SQLException
+     */
+    private static void initDatabase(final boolean dbReset, final Path snapshot, final boolean simulated)
+            throws SQLException {
+        final String databaseUrl;
+        if (DB_URL != null) {
+            databaseUrl = DB_URL;
+        } else if (simulated) {
+            // Kept open until exit, not only while a connection is
+            databaseUrl = "jdbc:h2:mem:brigitte;DB_CLOSE_DELAY=-1";
+        } else {
+            final File db = new File(new File("").getAbsolutePath() + "/rec/database/");
+            db.mkdirs();
+            databaseUrl = "jdbc:h2:file:" + db.getAbsolutePath() + "/brigitte.h2.db";
+        }
+        final ConnectionSource connectionSource = openConnectionSource(databaseUrl);
+        if (dbReset) {
+            SchemaMigration.reset(connectionSource);
+        }
+        TableUtils.createTableIfNotExists(connectionSource, Player.class);
+        TableUtils.createTableIfNotExists(connectionSource, Search.class);
+        SchemaMigration.migrate(connectionSource);
+        DatabaseManager.init(new OrmliteStorage(connectionSource), snapshot);
+    }
+
+    /**
+     * Open connection source to given database. Depending on
+     * {@link Main#DB_POOL_SIZE} either pooled or as single connection.
+     *
+     * @param databaseUrl
+     *            JDBC-URL of database
+     * @return Connection source to database
+     * @throws SQLException
+     */
+    private static ConnectionSource openConnectionSource(final String databaseUrl) throws SQLException {
+        if (DB_POOL_SIZE <= 1) return new JdbcConnectionSource(databaseUrl);
+        // Let H2 run statements of different connections in parallel, a
+        // server is configured on its own
+        final BoundedConnectionSource pool = new BoundedConnectionSource(
+                databaseUrl.startsWith("jdbc:h2:file:") ? databaseUrl + ";MULTI_THREADED=TRUE" : databaseUrl,
+                DB_POOL_SIZE, DB_WAIT);
+        pool.setMaxConnectionAgeMillis(DB_MAX_AGE);
+        pool.setCheckConnectionsEveryMillis(Math.max(DB_MAX_AGE / 2, 1000));
+        return pool;
+    }
+
+    /**
+     * Is called upon to clean the database for expired entries. If clustered,
+     * only the node holding the cleanup lease does so. The lease outlives two
+     * periods, so it stays with one node as long as that node runs. <br>
+     * The shards of that node do not see every user, so warnings to users it
+     * does not know are handed to the other nodes. The node seeing the user
+     * claims and sends them on its next call. Warnings to users no node sees
+     * are not sent.
      */
     private static void dbCleanUp() {
-        DatabaseManager.inst() //
-                .getExpiredEntrys() //
-                .stream() //
-                .forEach(e -> bot.sendMessage(e.getUserID(),
-                        String.format(
-                                "*Your %s-Entry will be deleted in 3 days. Please use '!update' if you want to prevent this.*",
-                                e.getClass().getTypeName())));
+        final DatabaseManager db = DatabaseManager.inst();
+        db.takeForwardedWarnings().stream() //
+                .filter(w -> bot.knowsUser(w.getUserID()) && db.claimWarning(w)) //
+                .forEach(w -> sendExpiryWarning(w.getUserID(), w.getEntity()));
+        if (!db.holdsLease("cleanup", 2 * SWEEP_PERIOD + 1, TimeUnit.MINUTES)) return;
+        final List<Expirable> unknown = new ArrayList<>();
+        for (final Expirable e : db.getExpiredEntrys()) {
+            if (bot.knowsUser(e.getUserID())) {
+                sendExpiryWarning(e.getUserID(), e.getClass().getTypeName());
+            } else {
+                unknown.add(e);
+            }
+        }
+        if (!db.forwardWarnings(unknown)) {
+            // Not handed over, so the failed sends get logged at least
+            unknown.forEach(e -> sendExpiryWarning(e.getUserID(), e.getClass().getTypeName()));
+        }
+    }
+
+    /**
+     * Warn given user of the deletion of an entry in 3 days.
+     *
+     * @param userID
+     *            Discord-ID of user
+     * @param type
+     *            Type of expiring entry
+     */
+    private static void sendExpiryWarning(final String userID, final String type) {
+        bot.sendMessage(userID,
+                String.format(
+                        "*Your %s-Entry will be deleted in 3 days. Please use '!update' if you want to prevent this.*",
+                        type),
+                Priority.EXPIRY);
     }
 }
@@ -0,0 +1,113 @@
+package de.big_reddy.brigitte;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces "new players of interest" notifications per searching user. <br>
+ * The first trigger for a user opens a window, all further triggers within it
+ * are merged, and a single message listing the players is sent when the window
+ * closes.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class NotificationBatcher {
+    /**
+     * Maximum number of players listed in one notification.
+     */
+    private static final int MAX_LISTED = 20;
+
+    /**
+     * Delivers a message (second) to a Discord-ID (first).
+     */
+    private final BiConsumer<String, String> sender;
+    /**
+     * Length of window in milliseconds.
+     */
+    private final long window;
+    /**
+     * IDs of players to notify about by Discord-ID of searching user.
+     */
+    private final Map<String, Set<String>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService schedule = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "notification-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor of {@link NotificationBatcher}.
+     *
+     * @param sender
+     *            Delivers a message (second) to a Discord-ID (first)
+     * @param window
+     *            Time to collect triggers before notifying
+     * @param unit
+     *            Unit of window
+     */
+    public NotificationBatcher(final BiConsumer<String, String> sender, final long window, final TimeUnit unit) {
+        this.sender = sender;
+        this.window = unit.toMillis(window);
+    }
+
+    /**
+     * Notify given searching user about given player, once the window of the
+     * user closes.
+     *
+     * @param searcherID
+     *            Discord-ID of user to notify
+     * @param playerID
+     *            Discord-ID of player of interest
+     */
+    public void notify(final String searcherID, final String playerID) {
+        this.pending.compute(searcherID, (k, players) -> {
+            if (players == null) {
+                players = new LinkedHashSet<>();
+                this.schedule.schedule(() -> this.flush(searcherID), this.window, TimeUnit.MILLISECONDS);
+            }
+            players.add(playerID);
+            return players;
+        });
+    }
+
+    /**
+     * Send pending notification of given user.
+     *
+     * @param searcherID
+     *            Discord-ID of user to notify
+     */
+    private void flush(final String searcherID) {
+        final Set<String> players = this.pending.remove(searcherID);
+        if (players == null || players.isEmpty()) return;
+        final List<String> listed = new ArrayList<>(players);
+        final String message = "*New players of interest are available:*\n" //
+                + listed.stream() //
+                        .limit(MAX_LISTED) //
+                        .map(id -> "<@" + id + ">") //
+                        .collect(Collectors.joining(", ")) //
+                + (listed.size() > MAX_LISTED ? " *and " + (listed.size() - MAX_LISTED) + " more*" : "");
+        try {
+            this.sender.accept(searcherID, message);
+        } catch (final RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Send all pending notifications right away and stop.
+     */
+    public void shutdown() {
+        this.schedule.shutdownNow();
+        new ArrayList<>(this.pending.keySet()).forEach(this::flush);
+    }
+}
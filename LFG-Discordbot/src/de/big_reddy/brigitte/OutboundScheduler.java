@@ -0,0 +1,347 @@
+package de.big_reddy.brigitte;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces all outbound Discord messages below the API rate limits. <br>
+ * Every message needs a token of the global bucket and of the bucket of its
+ * route (the receiving user). Messages are dispatched by {@link Priority},
+ * a message whose route is exhausted is parked until its route refills, so it
+ * does not block messages to other users. Each priority holds a bounded number
+ * of messages, further ones are dropped.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class OutboundScheduler {
+    /**
+     * Priority classes of outbound messages, highest first.
+     */
+    public enum Priority {
+        /**
+         * Direct reply to a command.
+         */
+        REPLY,
+        /**
+         * Warning about expiring entries.
+         */
+        EXPIRY,
+        /**
+         * Notification about new players of interest.
+         */
+        NOTIFY
+    }
+
+    /**
+     * Number of route buckets after which full (idle) buckets get evicted.
+     */
+    private static final int MAX_IDLE_ROUTES = 1024;
+
+    private final TokenBucket global;
+    private final int routeBurst;
+    private final double routeRate;
+    private final int capacity;
+
+    /**
+     * Ready messages per priority.
+     */
+    private final Map<Priority, ArrayDeque<Outbound>> queues = new EnumMap<>(Priority.class);
+    /**
+     * Messages waiting for their route to refill, by time they are ready.
+     */
+    private final PriorityQueue<Outbound> parked = new PriorityQueue<>(
+            Comparator.comparingLong((final Outbound o) -> o.readyAt).thenComparingLong(o -> o.sequence));
+    /**
+     * Number of queued or parked messages per priority.
+     */
+    private final Map<Priority, Integer> sizes = new EnumMap<>(Priority.class);
+    /**
+     * Token bucket per route. Only used by dispatcher thread.
+     */
+    private final Map<String, TokenBucket> routes = new HashMap<>();
+    private final Map<Priority, AtomicLong> dropped = new EnumMap<>(Priority.class);
+    private final AtomicLong sent = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = this.lock.newCondition();
+    private final Thread dispatcher;
+    private long sequence;
+    /**
+     * Number of route buckets at which idle ones get evicted next.
+     */
+    private int sweepAt = MAX_IDLE_ROUTES;
+    private volatile boolean closed;
+
+    /**
+     * Constructor of {@link OutboundScheduler}. Starts dispatching right away.
+     *
+     * @param globalRate
+     *            Messages per second over all routes
+     * @param routeBurst
+     *            Messages a single route may send at once
+     * @param routeRate
+     *            Messages per second a single route refills
+     * @param capacity
+     *            Maximum number of messages held per priority
+     */
+    public OutboundScheduler(final double globalRate, final int routeBurst, final double routeRate,
+            final int capacity) {
+        this.global = new TokenBucket(Math.max(1, (int) globalRate), globalRate, System.nanoTime());
+        this.routeBurst = routeBurst;
+        this.routeRate = routeRate;
+        this.capacity = capacity;
+        for (final Priority priority : Priority.values()) {
+            this.queues.put(priority, new ArrayDeque<>());
+            this.sizes.put(priority, 0);
+            this.dropped.put(priority, new AtomicLong());
+        }
+        this.dispatcher = new Thread(this::dispatch, "outbound-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queue given send action.
+     *
+     * @param priority
+     *            Priority class of message
+     * @param route
+     *            Route of message, the Discord-ID of receiver
+     * @param action
+     *            Action actually sending the message
+     * @return If the message got queued, false if its priority is full
+     */
+    public boolean submit(final Priority priority, final String route, final Runnable action) {
+        this.lock.lock();
+        try {
+            if (this.closed || this.sizes.get(priority) >= this.capacity) {
+                this.dropped.get(priority).incrementAndGet();
+                return false;
+            }
+            this.sizes.merge(priority, 1, Integer::sum);
+            this.queues.get(priority).add(new Outbound(priority, route, action, this.sequence++));
+            this.changed.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Dispatcher loop, sends messages as tokens become available.
+     */
+    private void dispatch() {
+        while (true) {
+            Outbound next = null;
+            this.lock.lock();
+            try {
+                final long now = System.nanoTime();
+                if (!this.parked.isEmpty() && this.parked.peek().readyAt <= now) {
+                    // Refilled routes go first, in order they got parked
+                    final ArrayDeque<Outbound> ready = new ArrayDeque<>();
+                    while (!this.parked.isEmpty() && this.parked.peek().readyAt <= now) {
+                        ready.push(this.parked.poll());
+                    }
+                    ready.forEach(o -> this.queues.get(o.priority).addFirst(o));
+                }
+                final ArrayDeque<Outbound> queue = this.nextQueue();
+                if (queue == null) {
+                    if (this.closed && this.parked.isEmpty()) return;
+                    if (this.parked.isEmpty()) {
+                        this.changed.await();
+                    } else {
+                        this.changed.awaitNanos(this.parked.peek().readyAt - now);
+                    }
+                    continue;
+                }
+                final long globalWait = this.global.waitTime(now);
+                if (globalWait > 0) {
+                    this.changed.awaitNanos(globalWait);
+                    continue;
+                }
+                final Outbound o = queue.poll();
+                if (!o.reserved) {
+                    // Reserve route token right away, parked messages of a
+                    // route then get ready one after another
+                    final TokenBucket route = this.route(o.route, now);
+                    final long routeWait = route.waitTime(now);
+                    route.take();
+                    if (routeWait > 0) {
+                        o.reserved = true;
+                        o.readyAt = now + routeWait;
+                        this.parked.add(o);
+                        continue;
+                    }
+                }
+                this.global.take();
+                this.sizes.merge(o.priority, -1, Integer::sum);
+                next = o;
+            } catch (final InterruptedException e) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                next.action.run();
+                this.sent.incrementAndGet();
+            } catch (final RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return Ready queue of highest non empty priority, <code>null</code> if
+     *         none
+     */
+    private ArrayDeque<Outbound> nextQueue() {
+        for (final Priority priority : Priority.values()) {
+            final ArrayDeque<Outbound> queue = this.queues.get(priority);
+            if (!queue.isEmpty()) return queue;
+        }
+        return null;
+    }
+
+    /**
+     * Return bucket of given route, evicting idle buckets if there are too
+     * many.
+     */
+    private TokenBucket route(final String route, final long now) {
+        if (this.routes.size() > this.sweepAt) {
+            this.routes.values().removeIf(b -> b.isFull(now));
+            this.sweepAt = Math.max(MAX_IDLE_ROUTES, 2 * this.routes.size());
+        }
+        return this.routes.computeIfAbsent(route, k -> new TokenBucket(this.routeBurst, this.routeRate, now));
+    }
+
+    /**
+     * @return Number of messages handed to Discord
+     */
+    public long getSent() {
+        return this.sent.get();
+    }
+
+    /**
+     * @param priority
+     *            Priority class
+     * @return Number of messages dropped of given priority
+     */
+    public long getDropped(final Priority priority) {
+        return this.dropped.get(priority).get();
+    }
+
+    /**
+     * @param priority
+     *            Priority class
+     * @return Number of messages waiting of given priority
+     */
+    public int getQueueDepth(final Priority priority) {
+        this.lock.lock();
+        try {
+            return this.sizes.get(priority);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting messages and send remaining ones.
+     *
+     * @param timeout
+     *            Maximum time to wait for remaining messages
+     * @param unit
+     *            Unit of timeout
+     */
+    public void shutdown(final long timeout, final TimeUnit unit) {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.changed.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.dispatcher.join(unit.toMillis(timeout));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.dispatcher.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("sent=").append(this.getSent());
+        for (final Priority priority : Priority.values()) {
+            builder.append(' ').append(priority.name().toLowerCase()).append("Queued=")
+                    .append(this.getQueueDepth(priority)).append(' ').append(priority.name().toLowerCase())
+                    .append("Dropped=").append(this.getDropped(priority));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Message waiting to be sent.
+     */
+    private static final class Outbound {
+        private final Priority priority;
+        private final String route;
+        private final Runnable action;
+        private final long sequence;
+        /**
+         * If the route token of this message is already taken.
+         */
+        private boolean reserved;
+        private long readyAt;
+
+        private Outbound(final Priority priority, final String route, final Runnable action, final long sequence) {
+            this.priority = priority;
+            this.route = route;
+            this.action = action;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Token bucket refilling continuously with a fixed rate up to its burst
+     * size. Tokens may be taken in advance, leaving the bucket negative.
+     */
+    private static final class TokenBucket {
+        private final int burst;
+        private final double perNano;
+        private double tokens;
+        private long last;
+
+        private TokenBucket(final int burst, final double perSecond, final long now) {
+            this.burst = burst;
+            this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = burst;
+            this.last = now;
+        }
+
+        /**
+         * @return Nanoseconds until a token is available, 0 if one is
+         */
+        private long waitTime(final long now) {
+            this.tokens = Math.min(this.burst, this.tokens + (now - this.last) * this.perNano);
+            this.last = now;
+            return this.tokens >= 1 ? 0 : (long) Math.ceil((1 - this.tokens) / this.perNano);
+        }
+
+        private void take() {
+            this.tokens--;
+        }
+
+        private boolean isFull(final long now) {
+            return this.waitTime(now) == 0 && this.tokens >= this.burst;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package de.big_reddy.brigitte;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import de.big_reddy.brigitte.data.DatabaseManager;
+import de.big_reddy.brigitte.data.Words;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Pages through search results, one message at a time. <br>
+ * Every user has at most one cursor, created by a search and moved by
+ * <code>!next</code> and <code>!prev</code>. Pages are fetched from the index
+ * by keyset (the last player shown), so only the players of the current page
+ * are loaded and formatted. Cursors unused for longer than their time to live
+ * are dropped.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class ResultPager {
+    /**
+     * Maximum length of a page, leaving room for a short note within the 2000
+     * characters of a Discord message.
+     */
+    private static final int MAX_LENGTH = 1950;
+    /**
+     * Number of cursors after which expired ones get evicted.
+     */
+    private static final int MAX_IDLE_CURSORS = 1024;
+    /**
+     * Maximum length of the part of a description shown for a text search.
+     */
+    private static final int SNIPPET_LENGTH = 120;
+
+    private final int pageSize;
+    private final long ttl;
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    /**
+     * Number of cursors at which expired ones get evicted next.
+     */
+    private volatile int sweepAt = MAX_IDLE_CURSORS;
+
+    /**
+     * Constructor of {@link ResultPager}.
+     *
+     * @param pageSize
+     *            Maximum number of players per page
+     * @param ttl
+     *            Time a cursor is kept after its last use
+     * @param unit
+     *            Unit of ttl
+     */
+    public ResultPager(final int pageSize, final long ttl, final TimeUnit unit) {
+        this.pageSize = pageSize;
+        this.ttl = unit.toNanos(ttl);
+    }
+
+    /**
+     * Start paging through the results of given search, replacing the previous
+     * cursor of its user.
+     *
+     * @param search
+     *            Search to page through
+     * @return First page
+     */
+    public String first(final Search search) {
+        return this.first(search, null);
+    }
+
+    /**
+     * Start paging through the results of given search limited to players
+     * with all words of given text in their description, replacing the
+     * previous cursor of its user.
+     *
+     * @param search
+     *            Search to page through
+     * @param text
+     *            Words to match, <code>null</code> to match all descriptions
+     * @return First page
+     */
+    public String first(final Search search, final String text) {
+        final long now = System.nanoTime();
+        if (this.cursors.size() > this.sweepAt) {
+            this.cursors.values().removeIf(c -> c.isExpired(now, this.ttl));
+            this.sweepAt = Math.max(MAX_IDLE_CURSORS, 2 * this.cursors.size());
+        }
+        final Cursor cursor = new Cursor(search, text, now);
+        this.cursors.put(search.getUserID(), cursor);
+        synchronized (cursor) {
+            return this.page(cursor);
+        }
+    }
+
+    /**
+     * Show next page of given user's cursor.
+     *
+     * @param userID
+     *            Discord-ID of user
+     * @return Next page
+     */
+    public String next(final String userID) {
+        final Cursor cursor = this.cursor(userID);
+        if (cursor == null) return "*Nothing to continue, start with !search*";
+        synchronized (cursor) {
+            if (cursor.last == null) return "*No further players found*";
+            cursor.starts.add(cursor.last);
+            return this.page(cursor);
+        }
+    }
+
+    /**
+     * Show previous page of given user's cursor.
+     *
+     * @param userID
+     *            Discord-ID of user
+     * @return Previous page
+     */
+    public String prev(final String userID) {
+        final Cursor cursor = this.cursor(userID);
+        if (cursor == null) return "*Nothing to continue, start with !search*";
+        synchronized (cursor) {
+            if (cursor.starts.size() == 1) return "*Already on first page*";
+            cursor.starts.remove(cursor.starts.size() - 1);
+            return this.page(cursor);
+        }
+    }
+
+    /**
+     * Show the k players closest to the sr of given search, ending the
+     * previous cursor of its user as ranked results are not paged. <br>
+     * Without a range given only the role of the search limits the players.
+     *
+     * @param search
+     *            Search to rank players for
+     * @param bounded
+     *            If the range of the search applies
+     * @param k
+     *            Maximum number of players to show
+     * @return Closest players, closest first
+     */
+    public String ranked(final Search search, final boolean bounded, final int k) {
+        this.cursors.remove(search.getUserID());
+        final List<Player> players = DatabaseManager.inst().getNearestPlayers(search.getRole(), search.getSr(),
+                bounded ? search.getMinSr() : 0, bounded ? search.getMaxSr() : 5000, k);
+        if (players.isEmpty()) return "*No players found*";
+        final String footer = " closest to " + search.getSr() + " SR*";
+        final StringBuilder builder = new StringBuilder();
+        int shown = 0;
+        for (final Player player : players) {
+            final String entry = player.toString();
+            if (shown > 0 && builder.length() + 2 + entry.length() + 6 + footer.length() > MAX_LENGTH) {
+                break;
+            }
+            if (shown > 0) {
+                builder.append("\n\n");
+            }
+            builder.append(entry);
+            shown++;
+        }
+        return builder.append("\n\n*").append(shown).append(footer).toString();
+    }
+
+    /**
+     * @return Unexpired cursor of given user, touched, <code>null</code> if
+     *         none
+     */
+    private Cursor cursor(final String userID) {
+        final long now = System.nanoTime();
+        final Cursor cursor = this.cursors.get(userID);
+        if (cursor == null) return null;
+        if (cursor.isExpired(now, this.ttl)) {
+            this.cursors.remove(userID, cursor);
+            return null;
+        }
+        cursor.lastUse = now;
+        return cursor;
+    }
+
+    /**
+     * Fetch and format page starting at last start of given cursor, within
+     * Discord's message length. Results of a text search show the part of each
+     * description around the first matching word. Caller has to hold the
+     * cursor's lock.
+     *
+     * @param cursor
+     *            Cursor to show page of
+     * @return Formatted page
+     */
+    private String page(final Cursor cursor) {
+        final Player after = cursor.starts.get(cursor.starts.size() - 1);
+        // One more than shown, to know if there is a next page
+        final List<Player> players = DatabaseManager.inst().getPlayers(cursor.search, cursor.text, after,
+                this.pageSize + 1);
+        final int page = cursor.starts.size();
+        if (players.isEmpty()) {
+            cursor.last = null;
+            return page == 1 ? "*No players found*" : "*No further players found*";
+        }
+        final String footer = page == 1
+                ? "\n\n*" + DatabaseManager.inst().countPlayers(cursor.search, cursor.text)
+                        + " players found - Page 1*"
+                : "\n\n*Page " + page + "*";
+        final String more = " *- !next for more*";
+        final String[] words = cursor.text == null ? null : Words.split(cursor.text);
+        final StringBuilder builder = new StringBuilder();
+        int shown = 0;
+        for (final Player player : players) {
+            if (shown == this.pageSize) {
+                break;
+            }
+            final String entry = words == null ? player.toString()
+                    : player.toString() + "\n***Description:*** "
+                            + Words.snippet(player.getDescription(), words, SNIPPET_LENGTH);
+            if (shown > 0 && builder.length() + 2 + entry.length() + footer.length() + more.length() > MAX_LENGTH) {
+                break;
+            }
+            if (shown > 0) {
+                builder.append("\n\n");
+            }
+            builder.append(entry);
+            shown++;
+        }
+        cursor.last = shown < players.size() ? players.get(shown - 1) : null;
+        builder.append(footer);
+        if (cursor.last != null) {
+            builder.append(more);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Position of a user within the results of a search.
+     */
+    private static final class Cursor {
+        private final Search search;
+        /**
+         * Words to match in descriptions, <code>null</code> if none.
+         */
+        private final String text;
+        /**
+         * Player each shown page continues after, <code>null</code> for the
+         * first page. The last one belongs to the current page.
+         */
+        private final List<Player> starts = new ArrayList<>();
+        /**
+         * Last player of current page, <code>null</code> if there is no next
+         * page.
+         */
+        private Player last;
+        private volatile long lastUse;
+
+        private Cursor(final Search search, final String text, final long now) {
+            this.search = search;
+            this.text = text;
+            this.starts.add(null);
+            this.lastUse = now;
+        }
+
+        private boolean isExpired(final long now, final long ttl) {
+            return now - this.lastUse > ttl;
+        }
+    }
+}
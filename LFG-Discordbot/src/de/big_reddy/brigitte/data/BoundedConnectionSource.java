@@ -0,0 +1,92 @@
+package de.big_reddy.brigitte.data;
+
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+/**
+ * Pooled connection source handing out at most a fixed number of connections
+ * at once. <br>
+ * {@link JdbcPooledConnectionSource} opens a new connection whenever none is
+ * free and only limits how many idle ones it keeps, so this source holds a
+ * permit for every connection in use. A caller waits for a permit until the
+ * given timeout and gets an {@link SQLException} after it. The connection
+ * saved for a running transaction is handed out again without another permit,
+ * as it already holds one.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class BoundedConnectionSource extends JdbcPooledConnectionSource {
+    private final Semaphore permits;
+    private final long timeout;
+
+    /**
+     * @param url
+     *            JDBC-URL of database
+     * @param maxConnections
+     *            Maximum number of connections in use at once, also kept as
+     *            idle connections
+     * @param timeout
+     *            Milliseconds to wait for a free connection
+     * @throws SQLException
+     */
+    public BoundedConnectionSource(final String url, final int maxConnections, final long timeout)
+            throws SQLException {
+        super(url);
+        this.permits = new Semaphore(maxConnections, true);
+        this.timeout = timeout;
+        this.setMaxConnectionsFree(maxConnections);
+    }
+
+    /**
+     * Wait for a permit unless a transaction's connection is saved. Read only
+     * connections are taken from here as well.
+     *
+     * @see com.j256.ormlite.jdbc.JdbcPooledConnectionSource#getReadWriteConnection(java.lang.String)
+     */
+    @Override
+    public DatabaseConnection getReadWriteConnection(final String tableName) throws SQLException {
+        if (this.getSavedConnection() != null) return super.getReadWriteConnection(tableName);
+        try {
+            if (!this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("No database connection free after " + this.timeout + " ms");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        boolean acquired = false;
+        try {
+            final DatabaseConnection returnV = super.getReadWriteConnection(tableName);
+            acquired = true;
+            return returnV;
+        } finally {
+            if (!acquired) {
+                this.permits.release();
+            }
+        }
+    }
+
+    /**
+     * Return the permit of the connection. The saved connection of a
+     * transaction returns it once it is no longer saved.
+     *
+     * @see com.j256.ormlite.jdbc.JdbcPooledConnectionSource#releaseConnection(com.j256.ormlite.support.DatabaseConnection)
+     */
+    @Override
+    public void releaseConnection(final DatabaseConnection connection) throws SQLException {
+        if (this.isSavedConnection(connection)) {
+            super.releaseConnection(connection);
+            return;
+        }
+        try {
+            super.releaseConnection(connection);
+        } finally {
+            this.permits.release();
+        }
+    }
+}
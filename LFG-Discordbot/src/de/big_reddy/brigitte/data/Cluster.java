@@ -0,0 +1,218 @@
+package de.big_reddy.brigitte.data;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.support.ConnectionSource;
+
+import de.big_reddy.brigitte.data.models.Change;
+
+/**
+ * Coordination of several bot processes (nodes) sharing one database server.
+ * <br>
+ * Every write to players or searches appends a {@link Change} within the same
+ * transaction, nodes tail this feed to apply the changes of other nodes to
+ * their in-memory indexes. Positions in the feed are drawn on insert, not on
+ * commit, so a node may read a change before one of lower position. The
+ * missing positions of such a gap are read again until they are filled, or
+ * until {@link Cluster#GAP_TIMEOUT} passed and they are taken for a rolled
+ * back transaction. New changes are read behind the gap meanwhile. <br>
+ * Jobs which must run on one node only are guarded by a lease: a row naming
+ * its holder and expiry, which other nodes only take over once expired.
+ * Expiry compares clocks of different nodes, they are expected to differ far
+ * less than the time to live of a lease.
+ *
+ * @author Big_Reddy
+ *
+ */
+class Cluster {
+    /**
+     * Maximum number of changes read by one poll.
+     */
+    private static final int BATCH = 1000;
+    /**
+     * Milliseconds a gap in the feed is waited for. Longer than any write
+     * transaction takes.
+     */
+    private static final long GAP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private final Dao<Change, Long> changeDao;
+    private final String node;
+    /**
+     * Every change up to this position is handled.
+     */
+    private long low;
+    /**
+     * Handled positions above {@link Cluster#low}, non empty while there is a
+     * gap.
+     */
+    private final NavigableSet<Long> handled = new TreeSet<>();
+    /**
+     * Epoch millis since the current gap is waited for, -1 if there is none.
+     */
+    private long gapSince = -1;
+
+    /**
+     * Constructor of {@link Cluster}. Has to be created before the indexes
+     * are loaded, so no change is missed in between.
+     *
+     * @param connectionSource
+     *            Connection to shared database
+     * @param node
+     *            Name of this node, unique in the cluster
+     * @throws SQLException
+     */
+    Cluster(final ConnectionSource connectionSource, final String node) throws SQLException {
+        this.changeDao = DaoManager.createDao(connectionSource, Change.class);
+        this.node = node;
+        // Changes of transactions still running may have lower positions than
+        // the last one, so recent changes are read again. Applying a change
+        // twice does no harm.
+        this.low = this.changeDao.queryRawValue("SELECT COALESCE(MAX(`seq`), 0) FROM `changes` WHERE `created` < ?",
+                Long.toString(System.currentTimeMillis() - GAP_TIMEOUT));
+    }
+
+    /**
+     * @return Name of this node
+     */
+    String getNode() {
+        return this.node;
+    }
+
+    /**
+     * Append given changes to the feed. Called within the transaction of the
+     * change itself.
+     *
+     * @param changes
+     *            Changes written by this node
+     * @throws SQLException
+     */
+    void append(final Collection<Change> changes) throws SQLException {
+        this.changeDao.create(changes);
+    }
+
+    /**
+     * Read changes of other nodes not yet read. Only called by one thread.
+     *
+     * @return New changes of other nodes, in feed order
+     * @throws SQLException
+     */
+    List<Change> poll() throws SQLException {
+        final List<Change> returnV = new ArrayList<>();
+        final long top = this.handled.isEmpty() ? this.low : this.handled.last();
+        if (top > this.low) {
+            // Only the missing positions of the gap are read again
+            final List<Long> missing = new ArrayList<>();
+            for (long seq = this.low + 1; seq < top && missing.size() < BATCH; seq++) {
+                if (!this.handled.contains(seq)) {
+                    missing.add(seq);
+                }
+            }
+            final QueryBuilder<Change, Long> query = this.changeDao.queryBuilder();
+            query.where().in("seq", missing);
+            this.collect(query.orderBy("seq", true).query(), returnV);
+        }
+        final QueryBuilder<Change, Long> query = this.changeDao.queryBuilder();
+        query.where().gt("seq", top);
+        this.collect(query.orderBy("seq", true).limit((long) BATCH).query(), returnV);
+        final long now = System.currentTimeMillis();
+        final long before = this.low;
+        this.advance();
+        if (this.handled.isEmpty()) {
+            this.gapSince = -1;
+        } else if (this.gapSince < 0 || this.low != before) {
+            this.gapSince = now;
+        } else if (now - this.gapSince > GAP_TIMEOUT) {
+            // Gap got rolled back
+            this.low = this.handled.first() - 1;
+            this.advance();
+            this.gapSince = this.handled.isEmpty() ? -1 : now;
+        }
+        return returnV;
+    }
+
+    /**
+     * Mark given changes handled, adding those of other nodes not handled
+     * before to given list.
+     */
+    private void collect(final List<Change> changes, final List<Change> out) {
+        for (final Change c : changes) {
+            if (this.handled.add(c.getSeq()) && !this.node.equals(c.getNode())) {
+                out.add(c);
+            }
+        }
+    }
+
+    /**
+     * Move {@link Cluster#low} over all consecutive handled positions.
+     */
+    private void advance() {
+        while (!this.handled.isEmpty() && this.handled.first() == this.low + 1) {
+            this.low = this.handled.pollFirst();
+        }
+    }
+
+    /**
+     * Mark warning at given position as sent, unless another node did so
+     * before.
+     *
+     * @param seq
+     *            Position of warning in the feed
+     * @return If this node is the one to send the warning
+     * @throws SQLException
+     */
+    boolean claim(final long seq) throws SQLException {
+        return this.changeDao.updateRaw("UPDATE `changes` SET `deleted` = TRUE WHERE `seq` = ? AND `deleted` = FALSE",
+                Long.toString(seq)) > 0;
+    }
+
+    /**
+     * Delete changes older than given age. Nodes are expected to have read
+     * them long before.
+     *
+     * @param age
+     *            Age in milliseconds
+     * @return Number of deleted changes
+     * @throws SQLException
+     */
+    int trim(final long age) throws SQLException {
+        final DeleteBuilder<Change, Long> delete = this.changeDao.deleteBuilder();
+        delete.where().lt("created", System.currentTimeMillis() - age);
+        return delete.delete();
+    }
+
+    /**
+     * Acquire or renew lease of given name for this node.
+     *
+     * @param name
+     *            Name of lease
+     * @param ttl
+     *            Milliseconds the lease is held from now on, unless renewed
+     * @return If this node holds the lease
+     * @throws SQLException
+     */
+    boolean holdsLease(final String name, final long ttl) throws SQLException {
+        final long now = System.currentTimeMillis();
+        final String expires = Long.toString(now + ttl);
+        if (this.changeDao.updateRaw(
+                "UPDATE `leases` SET `holder` = ?, `expires` = ? WHERE `name` = ? AND (`holder` = ? OR `expires` < ?)",
+                this.node, expires, name, this.node, Long.toString(now)) > 0)
+            return true;
+        try {
+            return this.changeDao.updateRaw("INSERT INTO `leases` (`name`, `holder`, `expires`) VALUES (?, ?, ?)",
+                    name, this.node, expires) > 0;
+        } catch (final SQLException e) {
+            // Held by another node
+            return false;
+        }
+    }
+}
@@ -1,172 +1,231 @@
 package de.big_reddy.brigitte.data;
 
-import java.sql.Date;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.stmt.QueryBuilder;
-import com.j256.ormlite.stmt.SelectArg;
-import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
 
+import de.big_reddy.brigitte.data.models.Change;
 import de.big_reddy.brigitte.data.models.Expirable;
 import de.big_reddy.brigitte.data.models.Player;
 import de.big_reddy.brigitte.data.models.Role;
 import de.big_reddy.brigitte.data.models.Search;
+import de.big_reddy.brigitte.metrics.Histogram;
+import de.big_reddy.brigitte.metrics.Metrics;
 
 /**
  * @author Big_Reddy
  *
  */
 public class DatabaseManager {
+    /**
+     * Seconds between two flushes of changed players to the database. <br>
+     * System property <code>brigitte.db.flushPeriod</code>, defaults to 5.
+     */
+    private static final int FLUSH_PERIOD = Integer.getInteger("brigitte.db.flushPeriod", 5);
+    /**
+     * Number of changed players that triggers a flush before the period
+     * ends. <br>
+     * System property <code>brigitte.db.flushSize</code>, defaults to 256.
+     */
+    private static final int FLUSH_SIZE = Integer.getInteger("brigitte.db.flushSize", 256);
+    /**
+     * Maximum number of entries deleted by one statement. H2 plans long
+     * <code>IN</code> lists poorly, chunks of this size delete about ten
+     * times faster than one statement for ten thousand entries.
+     */
+    private static final int DELETE_CHUNK = 500;
+    /**
+     * Maximum number of due players and of due searches handled by one
+     * {@link DatabaseManager#getExpiredEntrys() check}. The rest stays on the
+     * timing wheel for the following checks, so the deletes and warnings of
+     * a day are spread over the checks after midnight instead of one
+     * burst. <br>
+     * System property <code>brigitte.sweep.batch</code>, defaults to 1000.
+     */
+    private static final int EXPIRY_BATCH = Integer.getInteger("brigitte.sweep.batch", 1000);
+    /**
+     * Milliseconds between two reads of the change feed of a shared
+     * {@link Storage}. <br>
+     * System property <code>brigitte.cluster.feedPeriod</code>, defaults to
+     * 1000.
+     */
+    private static final long FEED_PERIOD = Long.getLong("brigitte.cluster.feedPeriod", 1000);
     /**
      * Instance of this singleton.
      */
-    private static DatabaseManager inst;
+    private static volatile DatabaseManager inst;
+    /**
+     * Released once {@link DatabaseManager#inst} is set.
+     */
+    private static final CountDownLatch INITIALIZED = new CountDownLatch(1);
+    /**
+     * Persistence of all players and searches.
+     */
+    private final Storage storage;
+    /**
+     * File the indexes are saved to on shutdown and restored from on start,
+     * <code>null</code> if not used.
+     */
+    private final Path snapshot;
     /**
-     * Database interface for interactions with {@link Player} table.
+     * In-memory index of all players, used to answer {@link Search searches}
+     * without database round trip.
      */
-    private final Dao<Player, String> playerDao;
+    private final PlayerIndex playerIndex = new PlayerIndex();
     /**
-     * Database interface for interactions with {@link Search} table.
+     * Columnar copy of all players, used to scan players without locking.
      */
-    private final Dao<Search, String> searchDao;
+    private final PlayerColumns playerColumns = new PlayerColumns();
     /**
-     * Map for named {@link QueryPair QueryPairs}. Used to easily access queries
-     * and their assigned {@link SelectArg}.
+     * In-memory index of all saved searches, used to find searches fitting a
+     * {@link Player} without scanning the search table.
      */
-    private final Map<String, QueryPair> querys = new HashMap<>();
+    private final SearchIndex searchIndex = new SearchIndex();
+    /**
+     * Next expiry deadline of every player, by Discord-ID.
+     */
+    private final TimingWheel<String> playerExpiries = new TimingWheel<>(Expirable.DELETE_DAYS + 2,
+            LocalDate.now().toEpochDay());
+    /**
+     * Next expiry deadline of every indexed search.
+     */
+    private final TimingWheel<Search> searchExpiries = new TimingWheel<>(Expirable.DELETE_DAYS + 2,
+            LocalDate.now().toEpochDay());
+    /**
+     * Discord-IDs of players changed in the index but not yet written to the
+     * database.
+     */
+    private final Set<String> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    /**
+     * Expiry warnings handed over by other nodes, not yet taken.
+     */
+    private final Queue<Change> forwardedWarnings = new ConcurrentLinkedQueue<>();
+    /**
+     * If a flush got triggered by {@link DatabaseManager#FLUSH_SIZE} and did
+     * not run yet.
+     */
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    /**
+     * Guards writes to player table, so a flush never resurrects a deleted
+     * player.
+     */
+    private final Object playerWriteLock = new Object();
+    private final Histogram playerLookups = Metrics.timer("index", "players");
+    private final Histogram searchLookups = Metrics.timer("index", "searches");
+    private final Histogram textLookups = Metrics.timer("index", "text");
+    private final Histogram playerScans = Metrics.timer("columns", "count");
+    private final Histogram flushes = Metrics.timer("db", "flush");
+    private final Histogram searchInserts = Metrics.timer("db", "createSearches");
+    private final Histogram expiryChecks = Metrics.timer("expiry", "check");
+    private final Histogram feedPolls = Metrics.timer("cluster", "feed");
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "player-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Constructor of this singleton.
      *
-     * @param connectionSource
-     *            Database connection
+     * @param storage
+     *            Persistence engine
+     * @param snapshot
+     *            Index snapshot file, <code>null</code> to load the storage
+     *            every start
      * @throws SQLException
      */
-    private DatabaseManager(final ConnectionSource connectionSource) throws SQLException {
-        this.playerDao = DaoManager.createDao(connectionSource, Player.class);
-        this.searchDao = DaoManager.createDao(connectionSource, Search.class);
-        this.initialForms();
+    private DatabaseManager(final Storage storage, final Path snapshot) throws SQLException {
+        this.storage = storage;
+        // Other nodes write meanwhile, a snapshot would be stale right away.
+        // One left behind is deleted, it would miss the writes of this run.
+        this.snapshot = storage.isShared() ? null : snapshot;
+        if (snapshot != null && this.snapshot == null) {
+            IndexSnapshot.discard(snapshot);
+        }
+        final long start = System.nanoTime();
+        final List<Player> players = new ArrayList<>();
+        final List<Search> searches = new ArrayList<>();
+        final boolean restored = this.snapshot != null
+                && IndexSnapshot.read(this.snapshot, storage.fingerprint(), players, searches);
+        if (!restored) {
+            storage.load(players::add, searches::add);
+        }
+        this.playerIndex.putAll(players);
+        // Already expired sets are due right away, so their users get warned
+        players.forEach(p -> {
+            this.playerColumns.put(p);
+            this.playerExpiries.schedule(p.getUserID(), p.getExpireDate().toEpochDay());
+        });
+        searches.forEach(s -> {
+            this.searchIndex.put(s);
+            this.searchExpiries.schedule(s, s.getExpireDate().toEpochDay());
+        });
+        System.out.println(String.format("Loaded %d players and %d searches from %s in %d ms", players.size(),
+                searches.size(), restored ? "index snapshot" : "storage",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        this.flusher.scheduleWithFixedDelay(this::flushPlayers, FLUSH_PERIOD, FLUSH_PERIOD, TimeUnit.SECONDS);
+        if (storage.isShared()) {
+            this.flusher.scheduleWithFixedDelay(this::pollChanges, 0, FEED_PERIOD, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
-     * Initializes, prepares and registers all form further forms used for
-     * database queries.
+     * Return query plan of given form.
      *
-     * @throws SQLException
+     * @param form
+     *            Name of form
+     * @return Plan as given by the storage, or reason it is not available
+     * @see Storage#explain(String)
      */
-    private void initialForms() throws SQLException {
-        // Select all player
-        {
-            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
-            this.querys.put("allPlayers", new QueryPair<>(queryBuilder.prepare()));
-            queryBuilder.reset();
-        }
-        // Select players by role
-        {
-            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
-            final Where<Player, String> where = queryBuilder.where();
-            final SelectArg arg = new SelectArg();
-            where.eq("role", arg);
-            this.querys.put("playersByRole", new QueryPair<>(queryBuilder.prepare(), arg));
-            queryBuilder.reset();
-        }
-        // Select players by sr
-        {
-            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
-            final Where<Player, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            final SelectArg arg2 = new SelectArg();
-            where.between("sr", arg1, arg2);
-            this.querys.put("playersBySR", new QueryPair<>(queryBuilder.prepare(), arg1, arg2));
-            queryBuilder.reset();
-        }
-        // Select players by role and sr
-        {
-            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
-            final Where<Player, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            final SelectArg arg2 = new SelectArg();
-            final SelectArg arg3 = new SelectArg();
-            where.eq("role", arg1);
-            where.and().between("sr", arg2, arg3);
-            this.querys.put("playersByRoleSR", new QueryPair<>(queryBuilder.prepare(), arg1, arg2, arg3));
-            queryBuilder.reset();
-        }
-        // Select players by all
-        {
-            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
-            final Where<Player, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            final SelectArg arg2 = new SelectArg();
-            final SelectArg arg3 = new SelectArg();
-            final SelectArg arg4 = new SelectArg();
-            where.eq("role", arg1);
-            where.and().between("sr", arg2, arg3);
-            where.and().like("description", arg4);
-            this.querys.put("playersAll", new QueryPair<>(queryBuilder.prepare(), arg1, arg2, arg3, arg4));
-            queryBuilder.reset();
-        }
-        // Select all expired players
-        {
-            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
-            final Where<Player, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            where.le("lastUpdate", arg1);
-            this.querys.put("playersExpired", new QueryPair<>(queryBuilder.prepare(), arg1));
-            queryBuilder.reset();
-        }
+    public String explain(final String form) {
+        return this.storage.explain(form);
+    }
 
-        // Select all fitting searches
-        {
-            final QueryBuilder<Search, String> queryBuilder = this.searchDao.queryBuilder();
-            final Where<Search, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            where.eq("role", arg1);
-            where.or().eq("role", Role.ANY);
-            this.querys.put("searchQuery", new QueryPair<>(queryBuilder.prepare(), arg1));
-            queryBuilder.reset();
-        }
-        // Select all searches by user
-        {
-            final QueryBuilder<Search, String> queryBuilder = this.searchDao.queryBuilder();
-            final Where<Search, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            where.eq("userID", arg1);
-            this.querys.put("searchID", new QueryPair<>(queryBuilder.prepare(), arg1));
-            queryBuilder.reset();
-        }
-        // Select all expired searches
-        {
-            final QueryBuilder<Search, String> queryBuilder = this.searchDao.queryBuilder();
-            final Where<Search, String> where = queryBuilder.where();
-            final SelectArg arg1 = new SelectArg();
-            where.le("lastUpdate", arg1);
-            this.querys.put("searchesExpired", new QueryPair<>(queryBuilder.prepare(), arg1));
-            queryBuilder.reset();
-        }
+    /**
+     * @return Names of all query forms of the storage
+     */
+    public Set<String> getForms() {
+        return this.storage.getForms();
     }
 
     /**
-     * Return instant of singleton.
+     * Return instant of singleton. Waits until it is initialized, so commands
+     * received while the indexes still load are answered once they are done.
      *
      * @return Instant of singleton
      */
     public static DatabaseManager inst() {
+        if (inst == null) {
+            try {
+                INITIALIZED.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         return inst;
     }
 
     /**
-     * Initialization of singleton.
+     * Initialization of singleton on a relational database.
      *
      * @param connectionSource
      *            Database connection
@@ -174,34 +233,47 @@ public class DatabaseManager {
      *             Thrown if either connectionSource is not or
      *             {@link DatabaseManager#inst} is set
      * @throws SQLException
+     * @see OrmliteStorage
      */
     public static void init(final ConnectionSource connectionSource) throws IllegalArgumentException, SQLException {
         if (connectionSource == null || inst != null) throw new IllegalArgumentException();
-        inst = new DatabaseManager(connectionSource);
+        init(new OrmliteStorage(connectionSource), null);
     }
 
     /**
-     * Return database request according to given form and values.
+     * Initialization of singleton on given storage.
      *
-     * @param form
-     *            Pre-created form to use
-     * @param args
-     *            Arguments for said form
-     * @return List of players fitting given form and arguments
+     * @param storage
+     *            Persistence engine
+     * @throws IllegalArgumentException
+     *             Thrown if either storage is not or
+     *             {@link DatabaseManager#inst} is set
+     * @throws SQLException
      */
-    public List<Player> getPlayers(final String form, final Object... args) {
-        final QueryPair<Player> temp = this.querys.get(form);
-
-        for (int i = 0; i < temp.getRight().length; i++) {
-            temp.getRight()[i].setValue(i < args.length ? args[i] : null);
-        }
+    public static void init(final Storage storage) throws IllegalArgumentException, SQLException {
+        init(storage, null);
+    }
 
-        try {
-            return this.playerDao.query(temp.getLeft());
-        } catch (final SQLException e) {
-            e.printStackTrace();
-            return Collections.emptyList();
-        }
+    /**
+     * Initialization of singleton on given storage, restoring its indexes
+     * from given snapshot file if it matches the storage. The indexes are
+     * saved to this file again on {@link DatabaseManager#shutdown()}.
+     *
+     * @param storage
+     *            Persistence engine
+     * @param snapshot
+     *            Index snapshot file, <code>null</code> to load the storage
+     * @throws IllegalArgumentException
+     *             Thrown if either storage is not or
+     *             {@link DatabaseManager#inst} is set
+     * @throws SQLException
+     * @see IndexSnapshot
+     */
+    public static void init(final Storage storage, final Path snapshot)
+            throws IllegalArgumentException, SQLException {
+        if (storage == null || inst != null) throw new IllegalArgumentException();
+        inst = new DatabaseManager(storage, snapshot);
+        INITIALIZED.countDown();
     }
 
     /**
@@ -212,24 +284,130 @@ public class DatabaseManager {
      * @return List of fitting players
      */
     public List<Player> getPlayers(final Search search) {
-        final List<Object> values = new ArrayList<>();
-        String form;
-        if (search.getRole() == Role.ANY) {
-            form = "playersBySR";
+        final long start = System.nanoTime();
+        final List<Player> returnV;
+        if (search.getSr() == -1) {
+            search.setSr(0);
+            search.setRange(5000);
+            returnV = this.playerIndex.all(search.getRole());
         } else {
-            form = "playersByRoleSR";
-            values.add(search.getRole());
+            returnV = this.playerIndex.range(search.getRole(), search.getMinSr(), search.getMaxSr());
         }
+        this.playerLookups.recordSince(start);
+        return returnV;
+    }
 
+    /**
+     * Return one page of {@link Player Players} applicable to given
+     * {@link Search}, ordered by sr.
+     *
+     * @param search
+     *            Search matches requested
+     * @param after
+     *            Last player of previous page, <code>null</code> for first page
+     * @param limit
+     *            Maximum number of players to return
+     * @return List of fitting players
+     * @see PlayerIndex#page(Role, int, int, Player, int)
+     */
+    public List<Player> getPlayers(final Search search, final Player after, final int limit) {
+        return this.getPlayers(search, null, after, limit);
+    }
+
+    /**
+     * Return one page of {@link Player Players} applicable to given
+     * {@link Search} with all words of given text in their description,
+     * ordered by sr.
+     *
+     * @param search
+     *            Search matches requested
+     * @param text
+     *            Words to match, <code>null</code> to match all descriptions
+     * @param after
+     *            Last player of previous page, <code>null</code> for first page
+     * @param limit
+     *            Maximum number of players to return
+     * @return List of fitting players
+     * @see PlayerIndex#page(Role, int, int, String, Player, int)
+     */
+    public List<Player> getPlayers(final Search search, final String text, final Player after, final int limit) {
+        final long start = System.nanoTime();
         if (search.getSr() == -1) {
             search.setSr(0);
             search.setRange(5000);
-            form = search.getRole() == Role.ANY ? "allPlayers" : "playersByRole";
-        } else {
-            values.add(search.getMinSr());
-            values.add(search.getMaxSr());
         }
-        return this.getPlayers(form, values.toArray());
+        final List<Player> returnV = this.playerIndex.page(search.getRole(), search.getMinSr(), search.getMaxSr(),
+                text, after, limit);
+        (text == null ? this.playerLookups : this.textLookups).recordSince(start);
+        return returnV;
+    }
+
+    /**
+     * Return the {@link Player Players} closest to given sr, equally close
+     * ones by most recent update.
+     *
+     * @param role
+     *            Role to match
+     * @param sr
+     *            SR to rank players by
+     * @param minSr
+     *            Lowest sr to match
+     * @param maxSr
+     *            Highest sr to match
+     * @param k
+     *            Maximum number of players to return
+     * @return List of closest players, closest first
+     * @see PlayerIndex#nearest(Role, int, int, int, int)
+     */
+    public List<Player> getNearestPlayers(final Role role, final int sr, final int minSr, final int maxSr,
+            final int k) {
+        final long start = System.nanoTime();
+        final List<Player> returnV = this.playerIndex.nearest(role, sr, minSr, maxSr, k);
+        this.playerLookups.recordSince(start);
+        return returnV;
+    }
+
+    /**
+     * Count {@link Player Players} applicable to given {@link Search}, on the
+     * current {@link PlayerColumns.Snapshot snapshot} of all players. <br>
+     * The columns do not hold players whose Discord-ID is no snowflake. While
+     * there are any, players are counted through the index instead, so the
+     * count matches the players listed.
+     *
+     * @param search
+     *            Search matches requested
+     * @return Number of fitting players
+     */
+    public int countPlayers(final Search search) {
+        final long start = System.nanoTime();
+        final int minSr = search.getSr() == -1 ? 0 : search.getMinSr();
+        final int maxSr = search.getSr() == -1 ? 5000 : search.getMaxSr();
+        final PlayerColumns.Snapshot columns = this.playerColumns.snapshot();
+        final int returnV = columns.size() == this.playerIndex.size()
+                ? columns.count(search.getRole(), minSr, maxSr)
+                : this.playerIndex.count(search.getRole(), minSr, maxSr, null);
+        this.playerScans.recordSince(start);
+        return returnV;
+    }
+
+    /**
+     * Count {@link Player Players} applicable to given {@link Search} with all
+     * words of given text in their description.
+     *
+     * @param search
+     *            Search matches requested
+     * @param text
+     *            Words to match, <code>null</code> to match all descriptions
+     * @return Number of fitting players
+     * @see PlayerIndex#count(Role, int, int, String)
+     */
+    public int countPlayers(final Search search, final String text) {
+        if (text == null) return this.countPlayers(search);
+        final long start = System.nanoTime();
+        final int returnV = search.getSr() == -1 ? this.playerIndex.count(search.getRole(), 0, 5000, text)
+                : this.playerIndex.count(search.getRole(), search.getMinSr(), search.getMaxSr(), text);
+        this.textLookups.recordSince(start);
+        return returnV;
     }
 
     /**
@@ -240,61 +418,370 @@ public class DatabaseManager {
      * @return List of fitting Searches
      */
     public List<Search> getSearches(final Player player) {
-        final QueryPair<Search> searchQuery = this.querys.get("searchQuery");
-        searchQuery.getRight()[0].setValue(player.getRole());
+        final long start = System.nanoTime();
+        final List<Search> returnV = this.searchIndex.stab(player.getRole(), player.getSr());
+        this.searchLookups.recordSince(start);
+        return returnV;
+    }
+
+    /**
+     * Return {@link Player} with given id, creating it if there is none. <br>
+     * Returned player is a copy, changes have to be saved with
+     * {@link DatabaseManager#updatePlayer(Player)}.
+     *
+     * @param id
+     *            Discord-ID of player
+     * @return Player with given id
+     */
+    public Player getPlayerByID(final String id) {
+        final Player indexed = this.playerIndex.get(id);
+        if (indexed != null) return new Player(indexed);
+        final Player player = new Player(id);
+        this.playerIndex.put(player);
+        this.playerColumns.put(player);
+        this.playerExpiries.schedule(id, nextDeadline(player));
+        this.markDirty(id);
+        return player;
+    }
+
+    /**
+     * Mark given player to be written with next flush, triggering a flush
+     * right away if enough players are waiting.
+     *
+     * @param id
+     *            Discord-ID of changed player
+     */
+    private void markDirty(final String id) {
+        this.dirtyPlayers.add(id);
+        if (this.dirtyPlayers.size() >= FLUSH_SIZE && this.flushQueued.compareAndSet(false, true)) {
+            this.flusher.execute(this::flushPlayers);
+        }
+    }
+
+    /**
+     * Write all changed players to the database in a single transaction. On
+     * failure they are kept for the next flush.
+     */
+    public void flushPlayers() {
+        this.flushQueued.set(false);
+        synchronized (this.playerWriteLock) {
+            if (this.dirtyPlayers.isEmpty()) return;
+            final long start = System.nanoTime();
+            final List<Player> batch = new ArrayList<>();
+            for (final Iterator<String> it = this.dirtyPlayers.iterator(); it.hasNext();) {
+                final Player p = this.playerIndex.get(it.next());
+                it.remove();
+                if (p != null) {
+                    batch.add(p);
+                }
+            }
+            try {
+                this.storage.savePlayers(batch);
+            } catch (final SQLException e) {
+                e.printStackTrace();
+                batch.forEach(p -> this.dirtyPlayers.add(p.getUserID()));
+            }
+            this.flushes.recordSince(start);
+        }
+    }
+
+    /**
+     * @return Number of changed players not yet written to the database
+     */
+    public int getDirtyPlayers() {
+        return this.dirtyPlayers.size();
+    }
+
+    /**
+     * Read changes of other nodes from the feed and apply them to the
+     * indexes. Of multiple changes of one entry only the last is applied.
+     * Warnings not yet sent are queued for
+     * {@link DatabaseManager#takeForwardedWarnings()}.
+     */
+    private void pollChanges() {
+        final long start = System.nanoTime();
         try {
-            return this.searchDao //
-                    .query(searchQuery.getLeft()) //
-                    .stream() //
-                    .filter(s -> s.isInRange(player.getSr())) //
-                    .collect(Collectors.toList());
+            final Map<String, Change> latest = new LinkedHashMap<>();
+            for (final Change c : this.storage.pollChanges()) {
+                if (c.getKind() == Change.Kind.WARNING) {
+                    if (!c.isDeleted()) {
+                        this.forwardedWarnings.add(c);
+                    }
+                    continue;
+                }
+                latest.put(c.getKind() + c.getEntity(), c);
+            }
+            for (final Change c : latest.values()) {
+                if (c.getKind() == Change.Kind.PLAYER) {
+                    this.applyPlayer(c);
+                } else {
+                    this.applySearch(c);
+                }
+            }
+        } catch (final SQLException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        this.feedPolls.recordSince(start);
+    }
+
+    /**
+     * Reload changed player of another node. Local changes not yet flushed
+     * are kept, as they are newer.
+     *
+     * @param change
+     *            Change of player
+     * @throws SQLException
+     */
+    private void applyPlayer(final Change change) throws SQLException {
+        final String id = change.getEntity();
+        synchronized (this.playerWriteLock) {
+            final Player p = change.isDeleted() ? null : this.storage.loadPlayer(id);
+            if (p == null) {
+                this.playerIndex.remove(id);
+                this.playerColumns.remove(id);
+                this.dirtyPlayers.remove(id);
+                this.playerExpiries.cancel(id);
+            } else if (!this.dirtyPlayers.contains(id)) {
+                this.playerIndex.put(p);
+                this.playerColumns.put(p);
+                this.playerExpiries.schedule(id, nextDeadline(p));
+            }
+        }
+    }
+
+    /**
+     * Reload changed search of another node.
+     *
+     * @param change
+     *            Change of search
+     * @throws SQLException
+     */
+    private void applySearch(final Change change) throws SQLException {
+        final int id = Integer.parseInt(change.getEntity());
+        for (final Search s : this.searchIndex.get(change.getUserID())) {
+            if (s.getId() == id) {
+                this.searchIndex.remove(s);
+                this.searchExpiries.cancel(s);
+            }
+        }
+        final Search s = change.isDeleted() ? null : this.storage.loadSearch(id);
+        if (s != null) {
+            this.searchIndex.put(s);
+            this.searchExpiries.schedule(s, nextDeadline(s));
+        }
+    }
+
+    /**
+     * Acquire or renew lease of given name, so only one node runs the job
+     * guarded by it. Always held if storage is not shared.
+     *
+     * @param name
+     *            Name of lease
+     * @param ttl
+     *            Time the lease is held from now on, unless renewed
+     * @param unit
+     *            Unit of ttl
+     * @return If this node holds the lease
+     */
+    public boolean holdsLease(final String name, final long ttl, final TimeUnit unit) {
+        try {
+            return this.storage.holdsLease(name, unit.toMillis(ttl));
         } catch (final SQLException e) {
             e.printStackTrace();
-            return Collections.emptyList();
+            return false;
         }
     }
 
-    public Player getPlayerByID(final String id) throws SQLException {
-        return this.playerDao.createIfNotExists(new Player(id));
+    /**
+     * Hand given expiry warnings to the other nodes, for the one seeing the
+     * user to send them.
+     *
+     * @param warnings
+     *            Expiring entries this node can not warn the user of
+     * @return If warnings got handed over, never if storage is not shared
+     */
+    public boolean forwardWarnings(final List<? extends Expirable> warnings) {
+        try {
+            return this.storage.forwardWarnings(warnings);
+        } catch (final SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return Expiry warnings handed over by other nodes since last call,
+     *         each to {@link DatabaseManager#claimWarning(Change) claim}
+     *         before sending
+     */
+    public List<Change> takeForwardedWarnings() {
+        final List<Change> returnV = new ArrayList<>();
+        Change c;
+        while ((c = this.forwardedWarnings.poll()) != null) {
+            returnV.add(c);
+        }
+        return returnV;
     }
 
     /**
-     * Check database for expiring data-sets, deleting (10 days) or returning (7
-     * days) untouched sets.
+     * Claim warning handed over by another node, so only one node sends it.
+     *
+     * @param warning
+     *            Warning from {@link DatabaseManager#takeForwardedWarnings()}
+     * @return If this node is the one to send the warning
+     */
+    public boolean claimWarning(final Change warning) {
+        try {
+            return this.storage.claimWarning(warning);
+        } catch (final SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Stop periodic flushing, write all changed players and close storage.
+     */
+    public void shutdown() {
+        this.flusher.shutdownNow();
+        this.flushPlayers();
+        try {
+            this.storage.close();
+            this.writeSnapshot();
+        } catch (final SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Save the indexes to {@link DatabaseManager#snapshot}, if used and all
+     * players got saved.
+     *
+     * @throws SQLException
+     */
+    private void writeSnapshot() throws SQLException {
+        if (this.snapshot == null) return;
+        if (!this.dirtyPlayers.isEmpty()) {
+            System.out.println("Not writing index snapshot, " + this.dirtyPlayers.size() + " players are not saved");
+            return;
+        }
+        final String fingerprint = this.storage.fingerprint();
+        if (fingerprint == null) return;
+        final long start = System.nanoTime();
+        try {
+            IndexSnapshot.write(this.snapshot, fingerprint, this.playerIndex.all(Role.ANY), this.searchIndex.all());
+            System.out.println(String.format("Wrote index snapshot in %d ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Check for expiring data-sets, deleting (10 days) or returning (7 days)
+     * untouched sets. <br>
+     * Only data-sets whose deadline passed since the last check are looked at,
+     * at most {@link DatabaseManager#EXPIRY_BATCH} players and searches each,
+     * every expired data-set is returned once. Also runs the periodic
+     * {@link Storage#compact() maintenance} of the storage, so if it is
+     * shared, only the node holding the cleanup lease is expected to call
+     * this.
      *
      * @return Data-sets that will be deleted soon, if untouched
      */
     public List<? extends Expirable> getExpiredEntrys() {
+        final long start = System.nanoTime();
+        final long today = LocalDate.now().toEpochDay();
+        final List<Expirable> returnV = new ArrayList<>();
         try {
-            final List<Expirable> returnV = new ArrayList<>();
-            {
-                final QueryPair<Search> searchExp = this.querys.get("searchesExpired");
-                searchExp.getRight()[0].setValue(Date.valueOf(LocalDate.now().minusDays(7).toString()));
-                final List<Search> expiredS = this.searchDao.query(searchExp.getLeft());
-                expiredS.stream().filter(s -> s.isExpired() == 2).forEach(s -> {
-                    try {
-                        this.searchDao.delete(s);
-                    } catch (final SQLException e) {}
-                });
-                returnV.addAll(this.searchDao.query(searchExp.getLeft()));
+            this.storage.compact();
+        } catch (final SQLException e) {
+            e.printStackTrace();
+        }
+        {
+            final List<Search> delete = new ArrayList<>();
+            for (final Search s : this.searchExpiries.advance(today, EXPIRY_BATCH)) {
+                if (s.isExpired() == 2) {
+                    delete.add(s);
+                } else {
+                    if (s.isExpired() == 1) {
+                        returnV.add(s);
+                    }
+                    this.searchExpiries.schedule(s, nextDeadline(s));
+                }
             }
-            {
-                final QueryPair<Player> searchExp = this.querys.get("playersExpired");
-                searchExp.getRight()[0].setValue(Date.valueOf(LocalDate.now().minusDays(7).toString()));
-
-                final List<Player> expiredP = this.playerDao.query(searchExp.getLeft());
-                expiredP.stream().filter(p -> p.isExpired() == 2).forEach(p -> {
+            for (int i = 0; i < delete.size(); i += DELETE_CHUNK) {
+                final List<Search> chunk = delete.subList(i, Math.min(i + DELETE_CHUNK, delete.size()));
+                try {
+                    this.storage.deleteSearches(chunk);
+                    chunk.forEach(this.searchIndex::remove);
+                } catch (final SQLException e) {
+                    e.printStackTrace();
+                    chunk.forEach(s -> this.searchExpiries.schedule(s, today + 1));
+                }
+            }
+        }
+        {
+            final List<String> due = new ArrayList<>();
+            for (final String id : this.playerExpiries.advance(today, EXPIRY_BATCH)) {
+                final Player p = this.playerIndex.get(id);
+                if (p == null) {
+                    continue;
+                } else if (p.isExpired() == 2) {
+                    due.add(id);
+                } else {
+                    if (p.isExpired() == 1) {
+                        returnV.add(p);
+                    }
+                    this.playerExpiries.schedule(id, nextDeadline(p));
+                }
+            }
+            for (int i = 0; i < due.size(); i += DELETE_CHUNK) {
+                final List<String> chunk = due.subList(i, Math.min(i + DELETE_CHUNK, due.size()));
+                synchronized (this.playerWriteLock) {
+                    // Checked again, the player may have been updated since
+                    final List<String> delete = new ArrayList<>(chunk.size());
+                    for (final String id : chunk) {
+                        final Player p = this.playerIndex.get(id);
+                        if (p == null) {
+                            continue;
+                        } else if (p.isExpired() == 2) {
+                            delete.add(id);
+                        } else {
+                            this.playerExpiries.schedule(id, nextDeadline(p));
+                        }
+                    }
+                    if (delete.isEmpty()) {
+                        continue;
+                    }
                     try {
-                        this.playerDao.delete(p);
-                    } catch (final SQLException e) {}
-                });
-                returnV.addAll(this.playerDao.query(searchExp.getLeft()));
+                        this.storage.deletePlayers(delete);
+                        delete.forEach(id -> {
+                            this.playerIndex.remove(id);
+                            this.playerColumns.remove(id);
+                            this.dirtyPlayers.remove(id);
+                        });
+                    } catch (final SQLException e) {
+                        e.printStackTrace();
+                        delete.forEach(id -> this.playerExpiries.schedule(id, today + 1));
+                    }
+                }
             }
-            return returnV;
-        } catch (final SQLException e) {
-            e.printStackTrace();
-            return Collections.emptyList();
         }
+        this.expiryChecks.recordSince(start);
+        return returnV;
+    }
+
+    /**
+     * Return epoch day of next expiry event of given data-set: the day it
+     * expires, or if already expired, the day it is free to delete.
+     *
+     * @param expirable
+     *            Data-set to check
+     * @return Epoch day of next expiry event
+     */
+    private static long nextDeadline(final Expirable expirable) {
+        return (expirable.isExpired() == 0 ? expirable.getExpireDate() : expirable.getDeleteDate()).toEpochDay();
     }
 
     /**
@@ -305,7 +792,13 @@ public class DatabaseManager {
      * @throws SQLException
      */
     public void deletePlayer(final String id) throws SQLException {
-        this.playerDao.deleteById(id);
+        synchronized (this.playerWriteLock) {
+            this.storage.deletePlayers(Collections.singletonList(id));
+            this.playerIndex.remove(id);
+            this.playerColumns.remove(id);
+            this.dirtyPlayers.remove(id);
+        }
+        this.playerExpiries.cancel(id);
     }
 
     /**
@@ -316,42 +809,58 @@ public class DatabaseManager {
      * @throws SQLException
      */
     public void deleteSearches(final String id) throws SQLException {
-        final QueryPair<Search> temp = this.querys.get("searchID");
-        temp.getRight()[0].setValue(id);
-        this.searchDao.query(temp.getLeft()).forEach(s -> {
-            try {
-                this.searchDao.delete(s);
-            } catch (final SQLException e) {}
-        });
+        this.storage.deleteSearches(this.searchIndex.get(id));
+        this.searchIndex.removeUser(id).forEach(this.searchExpiries::cancel);
     }
 
     /**
-     * Create {@link Player} or update if exists.
+     * Create {@link Player} or update if exists. <br>
+     * The change is visible right away and written to the database with the
+     * next flush. Waits for a running flush or delete of players, so an
+     * expiry check never deletes a player updated after its check.
      *
      * @param player
      *            Player to create/update
-     * @return If succeeded
      */
-    public boolean updatePlayer(final Player player) {
-        try {
-            player.setLastUpdate(LocalDate.now());
-            this.playerDao.createOrUpdate(player);
-        } catch (final SQLException e) {
-            e.printStackTrace();
-            return false;
+    public void updatePlayer(final Player player) {
+        player.setLastUpdate(LocalDate.now());
+        synchronized (this.playerWriteLock) {
+            this.playerIndex.put(player);
+            this.playerColumns.put(player);
+            this.playerExpiries.schedule(player.getUserID(), nextDeadline(player));
+            this.markDirty(player.getUserID());
         }
-        return true;
     }
 
     /**
-     * Save a {@link Search} in the database.
+     * Save a new {@link Search} in the database, setting its generated id.
      *
      * @param search
      *            Search to save
      * @throws SQLException
      */
     public void createSearch(final Search search) throws SQLException {
-        this.searchDao.createIfNotExists(search);
+        this.storage.createSearches(Collections.singletonList(search));
+        this.searchIndex.put(search);
+        this.searchExpiries.schedule(search, nextDeadline(search));
+    }
+
+    /**
+     * Save new {@link Search Searches} in the database within one
+     * transaction, setting their generated ids. Either all or none are saved.
+     *
+     * @param searches
+     *            Searches to save
+     * @throws SQLException
+     */
+    public void createSearches(final Collection<Search> searches) throws SQLException {
+        final long start = System.nanoTime();
+        this.storage.createSearches(searches);
+        for (final Search search : searches) {
+            this.searchIndex.put(search);
+            this.searchExpiries.schedule(search, nextDeadline(search));
+        }
+        this.searchInserts.recordSince(start);
     }
 
     /**
@@ -362,17 +871,16 @@ public class DatabaseManager {
      */
     public void update(final String id) {
         try {
-            final Player p = this.playerDao.queryForId(id);
-            if (p != null) {
-                this.playerDao.update(p);
+            final Player indexed = this.playerIndex.get(id);
+            if (indexed != null) {
+                final Player p = new Player(indexed);
+                this.updatePlayer(p);
             }
-            final QueryPair<Search> temp = this.querys.get("searchID");
-            temp.getRight()[0].setValue(id);
 
-            for (final Search s : this.searchDao.query(temp.getLeft())) {
-                s.setLastUpdate(LocalDate.now());
-                this.searchDao.update(s);
-            }
+            final List<Search> searches = this.searchIndex.get(id);
+            searches.forEach(s -> s.setLastUpdate(LocalDate.now()));
+            this.storage.updateSearches(searches);
+            searches.forEach(s -> this.searchExpiries.schedule(s, nextDeadline(s)));
         } catch (final SQLException e) {
             e.printStackTrace();
         }
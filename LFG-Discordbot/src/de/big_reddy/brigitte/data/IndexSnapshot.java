@@ -0,0 +1,204 @@
+package de.big_reddy.brigitte.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Copy of all indexed players and searches, written on shutdown, so the next
+ * start fills its indexes without loading the storage. <br>
+ * The file starts with magic, version, number of players and searches and the
+ * {@link Storage#fingerprint() fingerprint} of the storage it matches,
+ * followed by records as encoded by {@link Records}. Players are written in
+ * index order, so the index is built without sorting, and records are decoded
+ * in parallel. <br>
+ * A snapshot is deleted once read, a crash later on can not leave a stale one
+ * behind. A start not reading it deletes it as well, as the storage changes
+ * without it and the fingerprint does not see every change. Edits of the
+ * storage while the bot is stopped have to delete it themselves.
+ *
+ * @author Big_Reddy
+ *
+ */
+final class IndexSnapshot {
+    /**
+     * Start of every index snapshot, "BRIX".
+     */
+    private static final int MAGIC = 0x42524958;
+    private static final int VERSION = 1;
+    /**
+     * Players or searches per record.
+     */
+    private static final int RECORD = 1024;
+
+    private IndexSnapshot() {}
+
+    /**
+     * Write given players and searches as snapshot of storage with given
+     * fingerprint, replacing an old one atomically.
+     *
+     * @param file
+     *            Snapshot file
+     * @param fingerprint
+     *            Fingerprint of storage after its last write
+     * @param players
+     *            All players, in index order
+     * @param searches
+     *            All searches
+     * @throws IOException
+     */
+    static void write(final Path file, final String fingerprint, final Collection<Player> players,
+            final Collection<Search> searches) throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final byte[] print = fingerprint.getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer header = ByteBuffer.allocate(4 * 5 + print.length);
+            header.putInt(MAGIC).putInt(VERSION).putInt(players.size()).putInt(searches.size());
+            header.putInt(print.length).put(print).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            final Records.Buffer record = new Records.Buffer();
+            int count = 0;
+            for (final Player p : players) {
+                record.putPlayer(p);
+                if (++count % RECORD == 0) {
+                    record.writeTo(channel);
+                }
+            }
+            record.writeTo(channel);
+            for (final Search s : searches) {
+                record.putSearch(s);
+                if (++count % RECORD == 0) {
+                    record.writeTo(channel);
+                }
+            }
+            record.writeTo(channel);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete snapshot in given file, if there is one.
+     *
+     * @param file
+     *            Snapshot file
+     */
+    static void discard(final Path file) {
+        try {
+            if (Files.deleteIfExists(file)) {
+                System.out.println("Discarded index snapshot, storage is loaded instead");
+            }
+        } catch (final IOException e) {
+            System.out.println("Could not delete index snapshot: " + e);
+        }
+    }
+
+    /**
+     * Read snapshot from given file and delete it, if it matches given
+     * fingerprint. A missing, stale or broken snapshot is reported and
+     * deleted as well.
+     *
+     * @param file
+     *            Snapshot file
+     * @param fingerprint
+     *            Current fingerprint of storage, <code>null</code> if not
+     *            supported
+     * @param players
+     *            List to add players to, in index order
+     * @param searches
+     *            List to add searches to
+     * @return If given lists got filled
+     */
+    static boolean read(final Path file, final String fingerprint, final List<Player> players,
+            final List<Search> searches) {
+        if (!Files.exists(file)) return false;
+        final ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            Files.delete(file);
+        } catch (final IOException e) {
+            System.out.println("Could not read index snapshot: " + e);
+            return false;
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                System.out.println("Ignoring index snapshot of unknown format");
+                return false;
+            }
+            final int playerCount = buffer.getInt();
+            final int searchCount = buffer.getInt();
+            final byte[] print = new byte[buffer.getInt()];
+            buffer.get(print);
+            if (!new String(print, StandardCharsets.UTF_8).equals(fingerprint)) {
+                System.out.println("Ignoring index snapshot of another storage state");
+                return false;
+            }
+            final List<ByteBuffer> payloads = Records.split(buffer);
+            if (buffer.hasRemaining()) {
+                System.out.println("Ignoring torn index snapshot");
+                return false;
+            }
+            final List<Decoded> decoded = payloads.parallelStream().map(p -> {
+                final Decoded returnV = new Decoded();
+                Records.decode(p, returnV);
+                return returnV;
+            }).collect(Collectors.toList());
+            if (decoded.stream().mapToInt(d -> d.players.size()).sum() != playerCount
+                    || decoded.stream().mapToInt(d -> d.searches.size()).sum() != searchCount) {
+                System.out.println("Ignoring incomplete index snapshot");
+                return false;
+            }
+            for (final Decoded d : decoded) {
+                players.addAll(d.players);
+                searches.addAll(d.searches);
+            }
+            return true;
+        } catch (final RuntimeException e) {
+            System.out.println("Ignoring malformed index snapshot: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Players and searches of one record.
+     */
+    private static final class Decoded implements Records.Sink {
+        private final List<Player> players = new ArrayList<>();
+        private final List<Search> searches = new ArrayList<>();
+
+        @Override
+        public void putPlayer(final Player player) {
+            this.players.add(player);
+        }
+
+        @Override
+        public void deletePlayer(final String userID) {
+            throw new IndexOutOfBoundsException("Delete in index snapshot");
+        }
+
+        @Override
+        public void putSearch(final Search search) {
+            this.searches.add(search);
+        }
+
+        @Override
+        public void deleteSearch(final int id) {
+            throw new IndexOutOfBoundsException("Delete in index snapshot");
+        }
+    }
+}
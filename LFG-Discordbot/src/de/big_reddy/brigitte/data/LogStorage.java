@@ -0,0 +1,533 @@
+package de.big_reddy.brigitte.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * {@link Storage} as append-only log of mutations in memory mapped files,
+ * without ORMLite or a database. <br>
+ * Every write appends one binary record holding all its mutations to the
+ * current log file, which is a plain copy into the mapped region. The
+ * operating system writes it back, so a record survives a crash of the
+ * process, but is only forced to disk by {@link LogStorage#close()}. Records
+ * carry a checksum, replay of a file stops at the first torn record, so every
+ * write is saved as a whole or not at all. <br>
+ * A snapshot is a log with the folded state of all logs before its
+ * generation. {@link LogStorage#compact()} starts a new log file and folds
+ * snapshot and older logs into a new snapshot while writes go on, so replay on
+ * startup reads one snapshot and a few records. The state itself is only held
+ * by the indexes of {@link DatabaseManager}, folding uses temporary maps. <br>
+ * A log file is created by the first write of its generation and truncated to
+ * its records when closed, so files only change by writes.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class LogStorage implements Storage {
+    /**
+     * Bytes of unfolded logs from which {@link LogStorage#compact()} writes a
+     * new snapshot. <br>
+     * System property <code>brigitte.log.compactSize</code>, defaults to 64
+     * MiB.
+     */
+    private static final long COMPACT_SIZE = Long.getLong("brigitte.log.compactSize", 64L << 20);
+    /**
+     * Bytes of a log file mapped at once.
+     */
+    private static final int REGION = 16 << 20;
+    /**
+     * Start of every snapshot file, "BRIG".
+     */
+    private static final int MAGIC = 0x42524947;
+    private static final int VERSION = 1;
+    /**
+     * Bytes of snapshot header: magic, version, generation and next search
+     * id.
+     */
+    private static final int HEADER = 20;
+    /**
+     * Mutations per record of a snapshot.
+     */
+    private static final int SNAPSHOT_RECORD = 1024;
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    /**
+     * Only one compaction or replay at a time.
+     */
+    private final Object foldLock = new Object();
+    /**
+     * If {@link LogStorage#close()} got called, writes fail from then on.
+     */
+    private boolean closed;
+    /**
+     * Generation of the log written to.
+     */
+    private long generation;
+    private FileChannel log;
+    private MappedByteBuffer region;
+    /**
+     * Offset of {@link LogStorage#region} in current log.
+     */
+    private long regionStart;
+    /**
+     * Bytes of records in logs before the current one, not yet folded into
+     * the snapshot.
+     */
+    private long foldable;
+    private int nextSearchId = 1;
+    /**
+     * Record of the running write, before it is appended.
+     */
+    private final Records.Buffer record = new Records.Buffer();
+
+    /**
+     * Constructor of {@link LogStorage}. Takes the files in given directory
+     * for itself, the next write starts a new log file.
+     *
+     * @param directory
+     *            Directory of log and snapshot files, created if missing
+     * @throws SQLException
+     *             Thrown if directory can not be used or is already in use
+     */
+    public LogStorage(final Path directory) throws SQLException {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            this.lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = this.lockChannel.tryLock();
+            } catch (final OverlappingFileLockException e) {
+                // Held within this process
+                lock = null;
+            }
+            if (lock == null) {
+                this.lockChannel.close();
+                throw new SQLException("Log directory is already in use: " + directory);
+            }
+            this.lock = lock;
+            final long snapshotGeneration = this.readSnapshotGeneration();
+            this.deleteLogs(snapshotGeneration);
+            this.generation = Math.max(snapshotGeneration, this.logs().isEmpty() ? 0 : this.logs().lastKey() + 1);
+        } catch (final IOException e) {
+            throw new SQLException("Could not open log in " + directory, e);
+        }
+    }
+
+    /**
+     * Replay snapshot and all logs.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#load(java.util.function.Consumer,
+     *      java.util.function.Consumer)
+     */
+    @Override
+    public void load(final Consumer<Player> players, final Consumer<Search> searches) throws SQLException {
+        final long until;
+        synchronized (this) {
+            until = this.generation;
+        }
+        final State state;
+        synchronized (this.foldLock) {
+            state = this.fold(until);
+        }
+        synchronized (this) {
+            this.foldable = state.logBytes;
+            this.nextSearchId = Math.max(this.nextSearchId, state.nextSearchId);
+        }
+        state.players.values().forEach(players);
+        state.searches.values().forEach(searches);
+    }
+
+    /**
+     * Not supported, all players are loaded once.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#loadPlayer(java.lang.String)
+     */
+    @Override
+    public Player loadPlayer(final String userID) throws SQLException {
+        throw new SQLException("Log storage does not look up single players");
+    }
+
+    /**
+     * Not supported, all searches are loaded once.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#loadSearch(int)
+     */
+    @Override
+    public Search loadSearch(final int id) throws SQLException {
+        throw new SQLException("Log storage does not look up single searches");
+    }
+
+    @Override
+    public synchronized void savePlayers(final Collection<Player> players) throws SQLException {
+        if (players.isEmpty()) return;
+        for (final Player p : players) {
+            this.record.putPlayer(p);
+        }
+        this.append();
+    }
+
+    @Override
+    public synchronized void deletePlayers(final Collection<String> userIDs) throws SQLException {
+        if (userIDs.isEmpty()) return;
+        for (final String id : userIDs) {
+            this.record.putPlayerDelete(id);
+        }
+        this.append();
+    }
+
+    @Override
+    public synchronized void createSearches(final Collection<Search> searches) throws SQLException {
+        if (searches.isEmpty()) return;
+        final int first = this.nextSearchId;
+        for (final Search s : searches) {
+            s.setId(this.nextSearchId++);
+            this.record.putSearch(s);
+        }
+        try {
+            this.append();
+        } catch (final SQLException e) {
+            this.nextSearchId = first;
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void updateSearches(final Collection<Search> searches) throws SQLException {
+        if (searches.isEmpty()) return;
+        for (final Search s : searches) {
+            this.record.putSearch(s);
+        }
+        this.append();
+    }
+
+    @Override
+    public synchronized void deleteSearches(final Collection<Search> searches) throws SQLException {
+        if (searches.isEmpty()) return;
+        for (final Search s : searches) {
+            this.record.putSearchDelete(s.getId());
+        }
+        this.append();
+    }
+
+    /**
+     * Fold snapshot and all logs before the current one into a new snapshot,
+     * once they grew beyond {@link LogStorage#COMPACT_SIZE}. The current log
+     * is closed first, so writes only wait for the next file to be opened.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#compact()
+     */
+    @Override
+    public void compact() throws SQLException {
+        synchronized (this.foldLock) {
+            final long until;
+            synchronized (this) {
+                if (this.closed) throw new SQLException("Log storage is closed");
+                final long bytes = this.foldable + (this.log == null ? 0 : this.regionStart + this.region.position());
+                if (bytes < COMPACT_SIZE) return;
+                this.foldable = bytes;
+                try {
+                    this.closeLog();
+                } catch (final IOException e) {
+                    throw new SQLException("Could not close log " + this.generation, e);
+                }
+                this.generation++;
+                until = this.generation;
+            }
+            final long start = System.nanoTime();
+            final State state = this.fold(until);
+            try {
+                this.writeSnapshot(state, until);
+                this.deleteLogs(until);
+            } catch (final IOException e) {
+                throw new SQLException("Could not write snapshot", e);
+            }
+            synchronized (this) {
+                this.foldable = 0;
+            }
+            System.out.println(String.format("Compacted log into snapshot of %d players and %d searches in %d ms",
+                    state.players.size(), state.searches.size(), (System.nanoTime() - start) / 1000000));
+        }
+    }
+
+    /**
+     * Waits for a running compaction. Writes fail afterwards, as the
+     * directory may already be used by another process.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#close()
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this.foldLock) {
+            synchronized (this) {
+                if (this.closed) return;
+                this.closed = true;
+                try {
+                    this.closeLog();
+                    this.lock.release();
+                    this.lockChannel.close();
+                } catch (final IOException e) {
+                    throw new SQLException("Could not close log", e);
+                }
+            }
+        }
+    }
+
+    private void openLog() throws IOException {
+        this.log = FileChannel.open(this.directory.resolve(this.generation + LOG_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.regionStart = 0;
+        this.region = this.log.map(FileChannel.MapMode.READ_WRITE, 0, REGION);
+    }
+
+    /**
+     * Force and close the current log, if it got opened, cutting off the
+     * unused rest of its last region.
+     */
+    private void closeLog() throws IOException {
+        if (this.log == null) return;
+        this.region.force();
+        try {
+            this.log.truncate(this.regionStart + this.region.position());
+        } catch (final IOException e) {
+            // Some systems do not truncate mapped files, replay stops at the
+            // zeros anyway
+        }
+        this.log.close();
+        this.log = null;
+        this.region = null;
+    }
+
+    /**
+     * Names and sizes of snapshot and log files. Also valid after
+     * {@link LogStorage#close()}.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#fingerprint()
+     */
+    @Override
+    public synchronized String fingerprint() throws SQLException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return "log:" + files //
+                    .filter(f -> f.getFileName().toString().equals(SNAPSHOT)
+                            || f.getFileName().toString().endsWith(LOG_SUFFIX)) //
+                    .sorted() //
+                    .map(f -> f.getFileName() + "=" + f.toFile().length()) //
+                    .collect(Collectors.joining(","));
+        } catch (final IOException e) {
+            throw new SQLException("Could not list files of log in " + this.directory, e);
+        }
+    }
+
+    /**
+     * Append {@link LogStorage#record} to the current log. The record is
+     * cleared either way.
+     *
+     * @throws SQLException
+     */
+    private void append() throws SQLException {
+        final ByteBuffer payload = this.record.flip();
+        final int length = payload.remaining();
+        try {
+            if (this.closed) throw new SQLException("Log storage is closed");
+            if (this.log == null) {
+                this.openLog();
+            }
+            if (this.region.remaining() < Records.HEADER + length) {
+                // Regions are contiguous, a record never spans two
+                this.regionStart += this.region.position();
+                this.region = this.log.map(FileChannel.MapMode.READ_WRITE, this.regionStart,
+                        Math.max(REGION, Records.HEADER + length));
+            }
+            this.region.putInt(length);
+            this.region.putInt(this.record.checksum());
+            this.region.put(payload);
+        } catch (final IOException e) {
+            throw new SQLException("Could not extend log " + this.generation, e);
+        } finally {
+            this.record.clear();
+        }
+    }
+
+    /**
+     * Folded state of snapshot and logs.
+     */
+    private static final class State implements Records.Sink {
+        private final Map<String, Player> players = new HashMap<>();
+        private final Map<Integer, Search> searches = new HashMap<>();
+        private int nextSearchId = 1;
+        /**
+         * Bytes of records read from logs.
+         */
+        private long logBytes;
+
+        @Override
+        public void putPlayer(final Player player) {
+            this.players.put(player.getUserID(), player);
+        }
+
+        @Override
+        public void deletePlayer(final String userID) {
+            this.players.remove(userID);
+        }
+
+        @Override
+        public void putSearch(final Search search) {
+            this.searches.put(search.getId(), search);
+            this.nextSearchId = Math.max(this.nextSearchId, search.getId() + 1);
+        }
+
+        @Override
+        public void deleteSearch(final int id) {
+            this.searches.remove(id);
+        }
+    }
+
+    /**
+     * Replay snapshot and logs before given generation.
+     *
+     * @param until
+     *            First generation not to replay
+     * @return Folded state
+     * @throws SQLException
+     */
+    private State fold(final long until) throws SQLException {
+        final State state = new State();
+        try {
+            long generation = 0;
+            final Path snapshot = this.directory.resolve(SNAPSHOT);
+            if (Files.exists(snapshot)) {
+                final ByteBuffer buffer = map(snapshot);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                    throw new SQLException("Unknown snapshot format: " + snapshot);
+                generation = buffer.getLong();
+                state.nextSearchId = buffer.getInt();
+                Records.replay(buffer, state);
+            }
+            for (final Map.Entry<Long, Path> log : this.logs().subMap(generation, until).entrySet()) {
+                state.logBytes += Records.replay(map(log.getValue()), state);
+            }
+        } catch (final IOException e) {
+            throw new SQLException("Could not replay log", e);
+        }
+        return state;
+    }
+
+    private static ByteBuffer map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Write given state as snapshot of all logs before given generation,
+     * replacing the old one atomically.
+     */
+    private void writeSnapshot(final State state, final long generation) throws IOException {
+        final Path temp = this.directory.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(state.nextSearchId).flip();
+            channel.write(header);
+            // Encoded like writes, but into a buffer of its own, so writes go
+            // on
+            final Records.Buffer snapshotRecord = new Records.Buffer();
+            int count = 0;
+            for (final Player p : state.players.values()) {
+                snapshotRecord.putPlayer(p);
+                if (++count % SNAPSHOT_RECORD == 0) {
+                    snapshotRecord.writeTo(channel);
+                }
+            }
+            for (final Search s : state.searches.values()) {
+                snapshotRecord.putSearch(s);
+                if (++count % SNAPSHOT_RECORD == 0) {
+                    snapshotRecord.writeTo(channel);
+                }
+            }
+            snapshotRecord.writeTo(channel);
+            channel.force(true);
+        }
+        Files.move(temp, this.directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Generation of the current snapshot, 0 if there is none
+     */
+    private long readSnapshotGeneration() throws IOException {
+        final Path snapshot = this.directory.resolve(SNAPSHOT);
+        if (!Files.exists(snapshot)) return 0;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && channel.read(header) >= 0) {}
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC) throw new IOException("Broken " + snapshot);
+            header.getInt();
+            return header.getLong();
+        }
+    }
+
+    /**
+     * @return All log files by generation
+     */
+    private TreeMap<Long, Path> logs() throws IOException {
+        final TreeMap<Long, Path> returnV = new TreeMap<>();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            files.forEach(f -> {
+                final String name = f.getFileName().toString();
+                if (name.endsWith(LOG_SUFFIX)) {
+                    try {
+                        returnV.put(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())), f);
+                    } catch (final NumberFormatException e) {}
+                }
+            });
+        }
+        return returnV;
+    }
+
+    /**
+     * Delete log files before given generation, which are part of the
+     * snapshot. Files still mapped may not be deletable on some systems, they
+     * are deleted by a later call.
+     */
+    private void deleteLogs(final long until) throws IOException {
+        final List<Path> failed = new ArrayList<>();
+        for (final Path log : this.logs().headMap(until).values()) {
+            try {
+                Files.delete(log);
+            } catch (final IOException e) {
+                failed.add(log);
+            }
+        }
+        if (!failed.isEmpty()) {
+            System.out.println("Could not delete folded logs yet: " + failed);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package de.big_reddy.brigitte.data;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.support.ConnectionSource;
+
+import de.big_reddy.brigitte.data.models.Change;
+import de.big_reddy.brigitte.data.models.Expirable;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * {@link Storage} in a relational database through ORMLite, by default an
+ * embedded H2 database. <br>
+ * Every write runs in a transaction of its own. If clustered, the database is
+ * shared with other nodes and every write appends its {@link Change changes}
+ * to the feed of {@link Cluster} within the same transaction.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class OrmliteStorage implements Storage {
+    /**
+     * If this node shares its database server with other nodes, keeping its
+     * indexes in sync through the change feed of {@link Cluster}. <br>
+     * System property <code>brigitte.cluster</code>, defaults to false.
+     */
+    private static final boolean CLUSTER = Boolean.getBoolean("brigitte.cluster");
+    /**
+     * Name of this node, unique in the cluster. <br>
+     * System property <code>brigitte.node</code>, defaults to process id and
+     * host name.
+     */
+    private static final String NODE = System.getProperty("brigitte.node",
+            ManagementFactory.getRuntimeMXBean().getName());
+    /**
+     * Milliseconds changes are kept in the feed.
+     */
+    private static final long FEED_RETENTION = TimeUnit.DAYS.toMillis(1);
+    /**
+     * Number of sr ranges players are loaded in, each by a query of its own,
+     * in parallel. <br>
+     * System property <code>brigitte.db.loadParts</code>, defaults to number
+     * of cores.
+     */
+    private static final int LOAD_PARTS = Integer.getInteger("brigitte.db.loadParts",
+            Runtime.getRuntime().availableProcessors());
+
+    private final ConnectionSource connectionSource;
+    /**
+     * Database interface for interactions with {@link Player} table.
+     */
+    private final Dao<Player, String> playerDao;
+    /**
+     * Database interface for interactions with {@link Search} table.
+     */
+    private final Dao<Search, String> searchDao;
+    /**
+     * Map for named {@link QueryForm QueryForms}. Used to explain and check
+     * the query plans of all reads.
+     */
+    private final Map<String, QueryForm<?>> querys = new HashMap<>();
+    /**
+     * Select player by id.
+     */
+    private final QueryForm<Player> playerById;
+    /**
+     * Select players in sr range, ordered by sr and id.
+     */
+    private final QueryForm<Player> playersBySR;
+    /**
+     * Select search by id.
+     */
+    private final QueryForm<Search> searchById;
+    /**
+     * Change feed and leases shared with other nodes, <code>null</code> if
+     * not clustered.
+     */
+    private final Cluster cluster;
+
+    /**
+     * Constructor of {@link OrmliteStorage}. Expects the schema to be
+     * migrated.
+     *
+     * @param connectionSource
+     *            Database connection
+     * @throws SQLException
+     */
+    public OrmliteStorage(final ConnectionSource connectionSource) throws SQLException {
+        this.connectionSource = connectionSource;
+        this.playerDao = DaoManager.createDao(connectionSource, Player.class);
+        this.searchDao = DaoManager.createDao(connectionSource, Search.class);
+        this.playerById = this.register("playerById", this.playerDao, () -> {
+            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
+            final SelectArg arg = new SelectArg();
+            queryBuilder.where().eq("userID", arg);
+            return new QueryPair<>(queryBuilder.prepare(), arg);
+        });
+        this.playersBySR = this.register("playersBySR", this.playerDao, () -> {
+            final QueryBuilder<Player, String> queryBuilder = this.playerDao.queryBuilder();
+            final SelectArg arg1 = new SelectArg();
+            final SelectArg arg2 = new SelectArg();
+            queryBuilder.orderBy("sr", true).orderBy("userID", true).where().between("sr", arg1, arg2);
+            return new QueryPair<>(queryBuilder.prepare(), arg1, arg2);
+        });
+        this.searchById = this.register("searchById", this.searchDao, () -> {
+            final QueryBuilder<Search, String> queryBuilder = this.searchDao.queryBuilder();
+            final SelectArg arg = new SelectArg();
+            queryBuilder.where().eq("id", arg);
+            return new QueryPair<>(queryBuilder.prepare(), arg);
+        });
+        this.checkPlans();
+        // Created before loading, so no change is missed in between
+        this.cluster = CLUSTER ? new Cluster(connectionSource, NODE) : null;
+    }
+
+    /**
+     * Create and register form of given name.
+     *
+     * @param name
+     *            Name of form
+     * @param dao
+     *            Database interface to run queries with
+     * @param preparer
+     *            Creates a fresh prepared query and its arguments
+     * @return Registered form
+     * @throws SQLException
+     */
+    private <T> QueryForm<T> register(final String name, final Dao<T, ?> dao, final QueryForm.Preparer<T> preparer)
+            throws SQLException {
+        final QueryForm<T> returnV = new QueryForm<>(name, dao, preparer);
+        this.querys.put(name, returnV);
+        return returnV;
+    }
+
+    /**
+     * Warn about query forms which filter by scanning a whole table, as their
+     * index is missing. Every filtered read of this storage runs through a
+     * form, so all of them are checked.
+     */
+    private void checkPlans() {
+        this.querys.forEach((name, form) -> {
+            final String plan = this.explain(name);
+            if (plan.contains("WHERE") && plan.contains("tableScan")) {
+                System.out.println("Query form " + name + " scans whole table:\n" + plan);
+            }
+        });
+    }
+
+    /**
+     * Return query plan of given form.
+     *
+     * @param form
+     *            Name of form
+     * @return Plan as given by the database, or reason it is not available
+     */
+    @Override
+    public String explain(final String form) {
+        final QueryForm<?> queryForm = this.querys.get(form);
+        if (queryForm == null) return "No form named " + form;
+        try {
+            return queryForm.explain();
+        } catch (final SQLException e) {
+            e.printStackTrace();
+            return "Could not explain " + form + ": " + e.getMessage();
+        }
+    }
+
+    @Override
+    public Set<String> getForms() {
+        return Collections.unmodifiableSet(this.querys.keySet());
+    }
+
+    /**
+     * Players are loaded in {@link OrmliteStorage#LOAD_PARTS} sr ranges in
+     * parallel, each ordered by sr and id, and handed on in order.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#load(java.util.function.Consumer,
+     *      java.util.function.Consumer)
+     */
+    @Override
+    public void load(final Consumer<Player> players, final Consumer<Search> searches) throws SQLException {
+        if (LOAD_PARTS > 1) {
+            this.loadParallel(players);
+        } else {
+            try (CloseableIterator<Player> it = this.playerDao.iterator()) {
+                it.forEachRemaining(players);
+            } catch (final IOException e) {
+                throw new SQLException(e);
+            }
+        }
+        try (CloseableIterator<Search> it = this.searchDao.iterator()) {
+            it.forEachRemaining(searches);
+        } catch (final IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * Load all players by one query per sr range, run in parallel on
+     * connections of their own if the connection source is pooled.
+     *
+     * @param players
+     *            Consumer of players, called by the calling thread only
+     * @throws SQLException
+     */
+    private void loadParallel(final Consumer<Player> players) throws SQLException {
+        final String[] bounds = this.playerDao.queryRaw("SELECT MIN(`sr`), MAX(`sr`) FROM `players`").getFirstResult();
+        if (bounds == null || bounds[0] == null) return;
+        final int min = Integer.parseInt(bounds[0]);
+        final int max = Integer.parseInt(bounds[1]);
+        final int step = (max - min) / LOAD_PARTS + 1;
+        final List<Callable<List<Player>>> parts = new ArrayList<>(LOAD_PARTS);
+        for (int from = min; from <= max; from += step) {
+            final int to = Math.min(max, from + step - 1);
+            final int lowest = from;
+            parts.add(() -> this.playersBySR.query(lowest, to));
+        }
+        final ExecutorService loaders = Executors.newFixedThreadPool(parts.size());
+        try {
+            for (final Future<List<Player>> part : loaders.invokeAll(parts)) {
+                part.get().forEach(players);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading players", e);
+        } catch (final ExecutionException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+        } finally {
+            loaders.shutdown();
+        }
+    }
+
+    @Override
+    public Player loadPlayer(final String userID) throws SQLException {
+        final List<Player> found = this.playerById.query(userID);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    @Override
+    public Search loadSearch(final int id) throws SQLException {
+        final List<Search> found = this.searchById.query(id);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    @Override
+    public void savePlayers(final Collection<Player> players) throws SQLException {
+        TransactionManager.callInTransaction(this.connectionSource, () -> {
+            final List<String> ids = new ArrayList<>(players.size());
+            for (final Player p : players) {
+                this.playerDao.createOrUpdate(p);
+                ids.add(p.getUserID());
+            }
+            this.publishPlayers(ids, false);
+            this.countWrite();
+            return null;
+        });
+    }
+
+    @Override
+    public void deletePlayers(final Collection<String> userIDs) throws SQLException {
+        TransactionManager.callInTransaction(this.connectionSource, () -> {
+            this.playerDao.deleteIds(userIDs);
+            this.publishPlayers(userIDs, true);
+            this.countWrite();
+            return null;
+        });
+    }
+
+    @Override
+    public void createSearches(final Collection<Search> searches) throws SQLException {
+        TransactionManager.callInTransaction(this.connectionSource, () -> {
+            this.searchDao.create(searches);
+            this.publishSearches(searches, false);
+            this.countWrite();
+            return null;
+        });
+    }
+
+    @Override
+    public void updateSearches(final Collection<Search> searches) throws SQLException {
+        TransactionManager.callInTransaction(this.connectionSource, () -> {
+            for (final Search s : searches) {
+                this.searchDao.update(s);
+            }
+            this.publishSearches(searches, false);
+            this.countWrite();
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteSearches(final Collection<Search> searches) throws SQLException {
+        TransactionManager.callInTransaction(this.connectionSource, () -> {
+            this.searchDao.delete(searches);
+            this.publishSearches(searches, true);
+            this.countWrite();
+            return null;
+        });
+    }
+
+    /**
+     * Raise the write counter, which tells snapshots of states with the same
+     * counts apart. Called within the transaction of the write.
+     *
+     * @throws SQLException
+     */
+    private void countWrite() throws SQLException {
+        this.playerDao.updateRaw("UPDATE `storage_writes` SET `counter` = `counter` + 1");
+    }
+
+    /**
+     * Append changes of given players to the feed, if clustered. Called
+     * within the transaction writing them.
+     *
+     * @param ids
+     *            Discord-IDs of written players
+     * @param deleted
+     *            If players got deleted
+     * @throws SQLException
+     */
+    private void publishPlayers(final Collection<String> ids, final boolean deleted) throws SQLException {
+        if (this.cluster == null || ids.isEmpty()) return;
+        final List<Change> changes = new ArrayList<>(ids.size());
+        for (final String id : ids) {
+            changes.add(new Change(Change.Kind.PLAYER, id, id, deleted, NODE));
+        }
+        this.cluster.append(changes);
+    }
+
+    /**
+     * Append changes of given searches to the feed, if clustered. Called
+     * within the transaction writing them.
+     *
+     * @param searches
+     *            Written searches
+     * @param deleted
+     *            If searches got deleted
+     * @throws SQLException
+     */
+    private void publishSearches(final Collection<Search> searches, final boolean deleted) throws SQLException {
+        if (this.cluster == null || searches.isEmpty()) return;
+        final List<Change> changes = new ArrayList<>(searches.size());
+        for (final Search s : searches) {
+            changes.add(new Change(Change.Kind.SEARCH, Integer.toString(s.getId()), s.getUserID(), deleted, NODE));
+        }
+        this.cluster.append(changes);
+    }
+
+    /**
+     * Drop old changes from the feed, if clustered.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#compact()
+     */
+    @Override
+    public void compact() throws SQLException {
+        if (this.cluster != null) {
+            this.cluster.trim(FEED_RETENTION);
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return this.cluster != null;
+    }
+
+    @Override
+    public List<Change> pollChanges() throws SQLException {
+        return this.cluster == null ? Collections.emptyList() : this.cluster.poll();
+    }
+
+    @Override
+    public boolean holdsLease(final String name, final long ttl) throws SQLException {
+        return this.cluster == null || this.cluster.holdsLease(name, ttl);
+    }
+
+    @Override
+    public boolean forwardWarnings(final Collection<? extends Expirable> warnings) throws SQLException {
+        if (this.cluster == null) return false;
+        if (warnings.isEmpty()) return true;
+        final List<Change> changes = new ArrayList<>(warnings.size());
+        for (final Expirable e : warnings) {
+            changes.add(new Change(Change.Kind.WARNING, e.getClass().getTypeName(), e.getUserID(), false, NODE));
+        }
+        this.cluster.append(changes);
+        return true;
+    }
+
+    @Override
+    public boolean claimWarning(final Change warning) throws SQLException {
+        return this.cluster == null || this.cluster.claim(warning.getSeq());
+    }
+
+    /**
+     * Counts of players and searches, the highest search id and the number
+     * of writes, so updates in place change it as well. Writes of other
+     * programs are not counted. Not supported if clustered, as other nodes
+     * write meanwhile.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#fingerprint()
+     */
+    @Override
+    public String fingerprint() throws SQLException {
+        if (this.cluster != null) return null;
+        return "db:" + this.playerDao.countOf() + ":" + this.searchDao.countOf() + ":"
+                + this.searchDao.queryRawValue("SELECT COALESCE(MAX(`id`), 0) FROM `searches`") + ":"
+                + this.searchDao.queryRawValue("SELECT COALESCE(MAX(`counter`), 0) FROM `storage_writes`");
+    }
+
+    /**
+     * Connection source is owned by its creator and stays open.
+     *
+     * @see de.big_reddy.brigitte.data.Storage#close()
+     */
+    @Override
+    public void close() {}
+}
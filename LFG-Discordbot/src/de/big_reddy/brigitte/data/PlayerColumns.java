@@ -0,0 +1,293 @@
+package de.big_reddy.brigitte.data;
+
+import java.util.Arrays;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+
+/**
+ * Read optimized, columnar copy of the matching relevant fields of all
+ * players. <br>
+ * Every player takes one row of two primitive columns: its Discord-ID as
+ * snowflake and a key holding role ordinal (upper half) and sr (lower half).
+ * Packing both into one int makes a role and sr filter a single range check,
+ * so scans run as branch free loops over one int array the JIT can
+ * vectorize. <br>
+ * Rows are held in chunks of fixed size, a change copies only the chunks it
+ * touches and publishes a new immutable {@link Snapshot}, so readers never
+ * lock and always see a consistent state. Appending writes in place, as no
+ * snapshot reads behind its size. Rows have no order, deleting a row moves
+ * the last row into its place.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class PlayerColumns {
+    /**
+     * Rows per chunk, as power of two.
+     */
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    /**
+     * Mask of sr within a key.
+     */
+    private static final int SR_MASK = 0xFFFF;
+
+    /**
+     * Row of every held player, by snowflake. Only used by writers.
+     */
+    private final RowMap rows = new RowMap();
+    private volatile Snapshot snapshot = new Snapshot(new Chunk[0], 0);
+
+    /**
+     * Add given player, or update its row if already held. Players whose
+     * Discord-ID is no snowflake are not held.
+     *
+     * @param player
+     *            Player to add
+     * @return If player is held
+     */
+    public synchronized boolean put(final Player player) {
+        final long id;
+        try {
+            id = Long.parseUnsignedLong(player.getUserID());
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+        final int key = key(player.getRole() == null ? Role.NONE : player.getRole(), player.getSr());
+        final Snapshot current = this.snapshot;
+        final int existing = this.rows.get(id);
+        if (existing >= 0) {
+            final Chunk[] chunks = current.chunks.clone();
+            final Chunk chunk = chunks[existing >>> CHUNK_BITS].copy();
+            chunk.keys[existing & CHUNK_MASK] = key;
+            chunks[existing >>> CHUNK_BITS] = chunk;
+            this.snapshot = new Snapshot(chunks, current.size);
+        } else {
+            final int row = current.size;
+            Chunk[] chunks = current.chunks;
+            if ((row & CHUNK_MASK) == 0) {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = new Chunk();
+            }
+            // Rows behind size are not read by any snapshot, so they are
+            // written in place
+            final Chunk chunk = chunks[row >>> CHUNK_BITS];
+            chunk.ids[row & CHUNK_MASK] = id;
+            chunk.keys[row & CHUNK_MASK] = key;
+            this.rows.put(id, row);
+            this.snapshot = new Snapshot(chunks, row + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Remove player with given id, if held.
+     *
+     * @param userID
+     *            Discord-ID of player
+     */
+    public synchronized void remove(final String userID) {
+        final int removed;
+        try {
+            removed = this.rows.remove(Long.parseUnsignedLong(userID));
+        } catch (final NumberFormatException e) {
+            return;
+        }
+        if (removed < 0) return;
+        final Snapshot current = this.snapshot;
+        final int last = current.size - 1;
+        final Chunk[] chunks = Arrays.copyOf(current.chunks, (last + CHUNK_MASK) >>> CHUNK_BITS);
+        if (removed != last) {
+            // Fill gap with last row
+            final Chunk from = current.chunks[last >>> CHUNK_BITS];
+            final Chunk to = chunks[removed >>> CHUNK_BITS].copy();
+            to.ids[removed & CHUNK_MASK] = from.ids[last & CHUNK_MASK];
+            to.keys[removed & CHUNK_MASK] = from.keys[last & CHUNK_MASK];
+            chunks[removed >>> CHUNK_BITS] = to;
+            this.rows.put(from.ids[last & CHUNK_MASK], removed);
+        }
+        // Older snapshots still read the freed row, so the next append must
+        // not write into their last chunk
+        final int tail = (last - 1) >>> CHUNK_BITS;
+        if ((last & CHUNK_MASK) != 0 && chunks[tail] == current.chunks[tail]) {
+            chunks[tail] = chunks[tail].copy();
+        }
+        this.snapshot = new Snapshot(chunks, last);
+    }
+
+    /**
+     * @return Current state, never changing
+     */
+    public Snapshot snapshot() {
+        return this.snapshot;
+    }
+
+    private static int key(final Role role, final int sr) {
+        return role.ordinal() << 16 | sr & SR_MASK;
+    }
+
+    /**
+     * Immutable state of all columns.
+     */
+    public static final class Snapshot {
+        private final Chunk[] chunks;
+        private final int size;
+
+        private Snapshot(final Chunk[] chunks, final int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        /**
+         * @return Number of rows
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Count players of given role within given sr range.
+         *
+         * @param role
+         *            Role to match, {@link Role#ANY} matches all players
+         * @param minSr
+         *            Lowest sr to match
+         * @param maxSr
+         *            Highest sr to match
+         * @return Number of matching players
+         */
+        public int count(final Role role, final int minSr, final int maxSr) {
+            if (minSr > maxSr || maxSr < 0 || minSr > SR_MASK) return 0;
+            final boolean any = role == Role.ANY;
+            final int mask = any ? SR_MASK : -1;
+            final int low = any ? Math.max(minSr, 0) : key(role, Math.max(minSr, 0));
+            final int high = any ? Math.min(maxSr, SR_MASK) : key(role, Math.min(maxSr, SR_MASK));
+            int returnV = 0;
+            for (int c = 0; c < this.chunks.length; c++) {
+                final int[] keys = this.chunks[c].keys;
+                final int length = Math.min(CHUNK_SIZE, this.size - (c << CHUNK_BITS));
+                // Sign bit is set if key is out of range, kept branch free so
+                // the loop gets vectorized
+                for (int i = 0; i < length; i++) {
+                    final int key = keys[i] & mask;
+                    returnV += ((key - low | high - key) >>> 31) ^ 1;
+                }
+            }
+            return returnV;
+        }
+    }
+
+    /**
+     * Fixed size block of rows. Published chunks are never modified below
+     * the size of their snapshot.
+     */
+    private static final class Chunk {
+        private final long[] ids;
+        private final int[] keys;
+
+        private Chunk() {
+            this(new long[CHUNK_SIZE], new int[CHUNK_SIZE]);
+        }
+
+        private Chunk(final long[] ids, final int[] keys) {
+            this.ids = ids;
+            this.keys = keys;
+        }
+
+        private Chunk copy() {
+            return new Chunk(this.ids.clone(), this.keys.clone());
+        }
+    }
+
+    /**
+     * Open addressing map of snowflake to row, without boxing. Rows are never
+     * negative, -1 marks a free slot.
+     */
+    private static final class RowMap {
+        private long[] ids = new long[16];
+        private int[] rows = newRows(16);
+        private int size;
+
+        private static int[] newRows(final int capacity) {
+            final int[] returnV = new int[capacity];
+            Arrays.fill(returnV, -1);
+            return returnV;
+        }
+
+        /**
+         * @return Preferred slot of given id, by Fibonacci hashing
+         */
+        private int home(final long id) {
+            return (int) (id * 0x9E3779B97F4A7C15L >>> Long.numberOfLeadingZeros(this.ids.length) + 1);
+        }
+
+        private int slot(final long id) {
+            final int mask = this.ids.length - 1;
+            int slot = this.home(id);
+            while (this.rows[slot] >= 0 && this.ids[slot] != id) {
+                slot = slot + 1 & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * @return Row of given id, -1 if none
+         */
+        private int get(final long id) {
+            return this.rows[this.slot(id)];
+        }
+
+        private void put(final long id, final int row) {
+            final int slot = this.slot(id);
+            if (this.rows[slot] < 0) {
+                if (2 * (this.size + 1) > this.ids.length) {
+                    this.grow();
+                    this.put(id, row);
+                    return;
+                }
+                this.size++;
+                this.ids[slot] = id;
+            }
+            this.rows[slot] = row;
+        }
+
+        /**
+         * @return Removed row of given id, -1 if none
+         */
+        private int remove(final long id) {
+            final int mask = this.ids.length - 1;
+            int slot = this.slot(id);
+            final int returnV = this.rows[slot];
+            if (returnV < 0) return returnV;
+            this.size--;
+            // Shift following entries of the cluster back, so lookups need no
+            // tombstones
+            for (int next = slot + 1 & mask; this.rows[next] >= 0; next = next + 1 & mask) {
+                final int home = this.home(this.ids[next]);
+                if ((next - home & mask) >= (next - slot & mask)) {
+                    this.ids[slot] = this.ids[next];
+                    this.rows[slot] = this.rows[next];
+                    slot = next;
+                }
+            }
+            this.rows[slot] = -1;
+            return returnV;
+        }
+
+        private void grow() {
+            final long[] oldIds = this.ids;
+            final int[] oldRows = this.rows;
+            this.ids = new long[2 * oldIds.length];
+            this.rows = newRows(2 * oldIds.length);
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldRows[i] >= 0) {
+                    final int slot = this.slot(oldIds[i]);
+                    this.ids[slot] = oldIds[i];
+                    this.rows[slot] = oldRows[i];
+                }
+            }
+        }
+    }
+}
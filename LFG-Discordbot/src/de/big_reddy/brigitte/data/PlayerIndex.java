@@ -0,0 +1,611 @@
+package de.big_reddy.brigitte.data;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+
+/**
+ * In-memory matching index over all {@link Player players}. <br>
+ * Keeps one SR-sorted set per {@link Role} plus one over all players, filed
+ * under {@link Role#ANY}, so a search is a range lookup instead of a database
+ * query. <br>
+ * Descriptions are indexed as well: every word is mapped to the SR-sorted set
+ * of players using it (its posting list). A text search walks the sr range of
+ * the shortest posting list among its words and keeps players of the searched
+ * role using all other words, too.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class PlayerIndex {
+    /**
+     * Order of entries: by sr, then by user id. A <code>null</code> id sorts
+     * last and is only used as upper bound for range lookups.
+     */
+    private static final Comparator<Entry> ORDER = Comparator //
+            .comparingInt((final Entry e) -> e.sr) //
+            .thenComparing(e -> e.userID, Comparator.nullsLast(Comparator.naturalOrder()));
+    /**
+     * Order of equally ranked entries: most recently updated first, then by
+     * user id.
+     */
+    private static final Comparator<Entry> RECENT_FIRST = Comparator //
+            .comparingLong((final Entry e) -> -e.updated) //
+            .thenComparing(e -> e.userID);
+    private static final String[] NO_WORDS = {};
+    /**
+     * Posting list of a word no player uses.
+     */
+    private static final NavigableSet<Entry> NO_ENTRIES = Collections.unmodifiableNavigableSet(new TreeSet<>(ORDER));
+
+    /**
+     * Indexed entry of every player by user id.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+    /**
+     * SR sorted entries per role. {@link Role#ANY} contains all players.
+     */
+    private final Map<Role, NavigableSet<Entry>> byRole = new EnumMap<>(Role.class);
+    /**
+     * SR sorted entries per word of their description.
+     */
+    private final Map<String, NavigableSet<Entry>> byWord = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public PlayerIndex() {
+        for (final Role role : Role.values()) {
+            this.byRole.put(role, new TreeSet<>(ORDER));
+        }
+    }
+
+    /**
+     * Add given {@link Player} to the index or replace its previous entry.
+     *
+     * @param player
+     *            Player to index, a copy is stored
+     */
+    public void put(final Player player) {
+        final Entry entry = new Entry(new Player(player));
+        this.lock.writeLock().lock();
+        try {
+            this.link(entry);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add given {@link Player players} to the index or replace their previous
+     * entries. <br>
+     * Entries are built in parallel and sorted before they are linked. An
+     * empty index groups the sorted entries by role and word first and builds
+     * each set from its sorted list in linear time, so loading all players is
+     * much faster than single puts. <br>
+     * Unlike {@link PlayerIndex#put(Player)}, given players are stored
+     * themselves and must not be modified afterwards.
+     *
+     * @param players
+     *            Players to index with distinct ids
+     */
+    public void putAll(final Collection<Player> players) {
+        final Entry[] added = players.parallelStream() //
+                .map(Entry::new) //
+                .toArray(Entry[]::new);
+        Arrays.parallelSort(added, ORDER);
+        this.lock.writeLock().lock();
+        try {
+            if (!this.entries.isEmpty()) {
+                for (final Entry entry : added) {
+                    this.link(entry);
+                }
+                return;
+            }
+            final Map<Role, List<Entry>> sorted = new EnumMap<>(Role.class);
+            final Map<String, List<Entry>> postings = new HashMap<>();
+            for (final Entry entry : added) {
+                this.entries.put(entry.userID, entry);
+                sorted.computeIfAbsent(entry.role, r -> new ArrayList<>()).add(entry);
+                for (final String word : entry.words) {
+                    postings.computeIfAbsent(word, w -> new ArrayList<>()).add(entry);
+                }
+            }
+            sorted.put(Role.ANY, Arrays.asList(added));
+            sorted.forEach((role, list) -> this.byRole.put(role, sortedSet(list)));
+            postings.forEach((word, list) -> this.byWord.put(word, sortedSet(list)));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove {@link Player} with given id from the index.
+     *
+     * @param userID
+     *            Discord-ID of player to remove
+     */
+    public void remove(final String userID) {
+        this.lock.writeLock().lock();
+        try {
+            this.unlink(this.entries.remove(userID));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return indexed {@link Player} with given id. <br>
+     * Returned player is owned by the index and must not be modified.
+     *
+     * @param userID
+     *            Discord-ID to look up
+     * @return Indexed player, <code>null</code> if none
+     */
+    public Player get(final String userID) {
+        this.lock.readLock().lock();
+        try {
+            final Entry entry = this.entries.get(userID);
+            return entry == null ? null : entry.player;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param userID
+     *            Discord-ID to look up
+     * @return If a player with given id is indexed
+     */
+    public boolean contains(final String userID) {
+        this.lock.readLock().lock();
+        try {
+            return this.entries.containsKey(userID);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return all {@link Player players} of given role with a sr between minSr
+     * and maxSr (both inclusive), ordered by sr. <br>
+     * Returned players are owned by the index and must not be modified.
+     *
+     * @param role
+     *            Role to match, {@link Role#ANY} matches all players
+     * @param minSr
+     *            Lowest sr to match
+     * @param maxSr
+     *            Highest sr to match
+     * @return List of fitting players
+     */
+    public List<Player> range(final Role role, final int minSr, final int maxSr) {
+        if (minSr > maxSr) return Collections.emptyList();
+        this.lock.readLock().lock();
+        try {
+            final NavigableSet<Entry> range = this.byRole.get(role) //
+                    .subSet(new Entry(minSr, ""), true, new Entry(maxSr, null), true);
+            final List<Player> returnV = new ArrayList<>(range.size());
+            range.forEach(e -> returnV.add(e.player));
+            return returnV;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return up to limit {@link Player players} of given role with a sr
+     * between minSr and maxSr (both inclusive), following given player in
+     * order of sr and id. Paging with the last player of a page continues
+     * right after it, even if players got added or removed meanwhile. <br>
+     * Returned players are owned by the index and must not be modified.
+     *
+     * @param role
+     *            Role to match, {@link Role#ANY} matches all players
+     * @param minSr
+     *            Lowest sr to match
+     * @param maxSr
+     *            Highest sr to match
+     * @param after
+     *            Player to continue after, <code>null</code> to start with the
+     *            lowest sr
+     * @param limit
+     *            Maximum number of players to return
+     * @return List of fitting players, ordered by sr
+     */
+    public List<Player> page(final Role role, final int minSr, final int maxSr, final Player after,
+            final int limit) {
+        return this.page(role, minSr, maxSr, null, after, limit);
+    }
+
+    /**
+     * Return up to limit {@link Player players} of given role with a sr
+     * between minSr and maxSr (both inclusive) and all words of given text in
+     * their description, following given player in order of sr and id. <br>
+     * Returned players are owned by the index and must not be modified.
+     *
+     * @param role
+     *            Role to match, {@link Role#ANY} matches all players
+     * @param minSr
+     *            Lowest sr to match
+     * @param maxSr
+     *            Highest sr to match
+     * @param text
+     *            Words to match, see {@link Words#split(String)},
+     *            <code>null</code> to match all descriptions
+     * @param after
+     *            Player to continue after, <code>null</code> to start with the
+     *            lowest sr
+     * @param limit
+     *            Maximum number of players to return
+     * @return List of fitting players, ordered by sr
+     * @see PlayerIndex#page(Role, int, int, Player, int)
+     */
+    public List<Player> page(final Role role, final int minSr, final int maxSr, final String text,
+            final Player after, final int limit) {
+        final boolean fromStart = after == null || after.getSr() < minSr;
+        final Entry from = fromStart ? new Entry(minSr, "") : new Entry(after.getSr(), after.getUserID());
+        final Entry to = new Entry(maxSr, null);
+        if (minSr > maxSr || ORDER.compare(from, to) > 0) return Collections.emptyList();
+        final String[] words = Words.split(text);
+        this.lock.readLock().lock();
+        try {
+            final List<Player> returnV = new ArrayList<>(Math.min(limit, 64));
+            for (final Entry e : this.candidates(role, words).subSet(from, fromStart, to, true)) {
+                if (returnV.size() == limit) {
+                    break;
+                }
+                if (e.matches(role, words)) {
+                    returnV.add(e.player);
+                }
+            }
+            return returnV;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count {@link Player players} of given role with a sr between minSr and
+     * maxSr (both inclusive) and all words of given text in their
+     * description.
+     *
+     * @param role
+     *            Role to match, {@link Role#ANY} matches all players
+     * @param minSr
+     *            Lowest sr to match
+     * @param maxSr
+     *            Highest sr to match
+     * @param text
+     *            Words to match, see {@link Words#split(String)}
+     * @return Number of fitting players
+     */
+    public int count(final Role role, final int minSr, final int maxSr, final String text) {
+        if (minSr > maxSr) return 0;
+        final String[] words = Words.split(text);
+        this.lock.readLock().lock();
+        try {
+            int returnV = 0;
+            for (final Entry e : this.candidates(role, words).subSet(new Entry(minSr, ""), true,
+                    new Entry(maxSr, null), true)) {
+                if (e.matches(role, words)) {
+                    returnV++;
+                }
+            }
+            return returnV;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the k {@link Player players} of given role closest to given sr,
+     * within minSr and maxSr (both inclusive). Players equally close are
+     * ordered by most recent update. <br>
+     * Walks outward from sr in both directions, so only the returned players
+     * and those tied with the farthest of them are looked at. <br>
+     * Returned players are owned by the index and must not be modified.
+     *
+     * @param role
+     *            Role to match, {@link Role#ANY} matches all players
+     * @param sr
+     *            SR to rank players by
+     * @param minSr
+     *            Lowest sr to match
+     * @param maxSr
+     *            Highest sr to match
+     * @param k
+     *            Maximum number of players to return
+     * @return List of closest players, closest first
+     */
+    public List<Player> nearest(final Role role, final int sr, final int minSr, final int maxSr, final int k) {
+        if (minSr > maxSr || sr < minSr || sr > maxSr) return Collections.emptyList();
+        this.lock.readLock().lock();
+        try {
+            final NavigableSet<Entry> set = this.byRole.get(role);
+            final Entry pivot = new Entry(sr, "");
+            final Iterator<Entry> up = set.subSet(pivot, true, new Entry(maxSr, null), true).iterator();
+            final Iterator<Entry> down = set.subSet(new Entry(minSr, ""), true, pivot, false).descendingIterator();
+            Entry nextUp = up.hasNext() ? up.next() : null;
+            Entry nextDown = down.hasNext() ? down.next() : null;
+            final List<Player> returnV = new ArrayList<>(k);
+            final List<Entry> tied = new ArrayList<>();
+            while (returnV.size() < k && (nextUp != null || nextDown != null)) {
+                final int distance = Math.min(nextUp == null ? Integer.MAX_VALUE : nextUp.sr - sr,
+                        nextDown == null ? Integer.MAX_VALUE : sr - nextDown.sr);
+                // Collect all entries of this distance on both sides
+                tied.clear();
+                while (nextUp != null && nextUp.sr - sr == distance) {
+                    tied.add(nextUp);
+                    nextUp = up.hasNext() ? up.next() : null;
+                }
+                while (nextDown != null && sr - nextDown.sr == distance) {
+                    tied.add(nextDown);
+                    nextDown = down.hasNext() ? down.next() : null;
+                }
+                tied.sort(RECENT_FIRST);
+                for (int i = 0; i < tied.size() && returnV.size() < k; i++) {
+                    returnV.add(tied.get(i).player);
+                }
+            }
+            return returnV;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return all {@link Player players} of given role, ordered by sr.
+     *
+     * @param role
+     *            Role to match, {@link Role#ANY} matches all players
+     * @return List of fitting players
+     * @see PlayerIndex#range(Role, int, int)
+     */
+    public List<Player> all(final Role role) {
+        return this.range(role, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return Number of indexed players
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the set to walk for given role and words: the set of the role
+     * without words, else the shortest posting list. Caller has to hold the
+     * read lock.
+     *
+     * @return Set holding all matching entries, and others if words are given
+     */
+    private NavigableSet<Entry> candidates(final Role role, final String[] words) {
+        if (words.length == 0) return this.byRole.get(role);
+        NavigableSet<Entry> returnV = null;
+        for (final String word : words) {
+            final NavigableSet<Entry> posting = this.byWord.get(word);
+            if (posting == null) return NO_ENTRIES;
+            if (returnV == null || posting.size() < returnV.size()) {
+                returnV = posting;
+            }
+        }
+        return returnV;
+    }
+
+    /**
+     * Add given entry to its role sets and posting lists, replacing the
+     * previous entry of its player. Caller has to hold the write lock.
+     *
+     * @param entry
+     *            Entry to add
+     */
+    private void link(final Entry entry) {
+        this.unlink(this.entries.put(entry.userID, entry));
+        this.byRole.get(Role.ANY).add(entry);
+        if (entry.role != Role.ANY) {
+            this.byRole.get(entry.role).add(entry);
+        }
+        for (final String word : entry.words) {
+            this.byWord.computeIfAbsent(word, w -> new TreeSet<>(ORDER)).add(entry);
+        }
+    }
+
+    /**
+     * Remove given entry from its role sets and posting lists. Caller has to
+     * hold the write lock.
+     *
+     * @param entry
+     *            Entry to remove, may be <code>null</code>
+     */
+    private void unlink(final Entry entry) {
+        if (entry == null) return;
+        this.byRole.get(Role.ANY).remove(entry);
+        this.byRole.get(entry.role).remove(entry);
+        for (final String word : entry.words) {
+            final NavigableSet<Entry> posting = this.byWord.get(word);
+            posting.remove(entry);
+            if (posting.isEmpty()) {
+                this.byWord.remove(word);
+            }
+        }
+    }
+
+    /**
+     * @param entries
+     *            Distinct entries in {@link PlayerIndex#ORDER}
+     * @return New set of given entries, built without comparing them
+     */
+    private static NavigableSet<Entry> sortedSet(final List<Entry> entries) {
+        return new TreeSet<>(new SortedView(entries, null, null));
+    }
+
+    /**
+     * Unmodifiable view of a list of distinct entries in
+     * {@link PlayerIndex#ORDER} as {@link SortedSet}, the input {@link TreeSet}
+     * builds its tree from in linear time. Ranges are looked up by binary
+     * search.
+     */
+    private static final class SortedView extends AbstractSet<Entry> implements SortedSet<Entry> {
+        private final List<Entry> entries;
+        /**
+         * Lowest entry of the range, inclusive, <code>null</code> if
+         * unbounded.
+         */
+        private final Entry from;
+        /**
+         * Highest entry of the range, exclusive, <code>null</code> if
+         * unbounded.
+         */
+        private final Entry to;
+
+        private SortedView(final List<Entry> entries, final Entry from, final Entry to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<Entry> iterator() {
+            return Collections.unmodifiableList(this.entries).iterator();
+        }
+
+        @Override
+        public int size() {
+            return this.entries.size();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return o instanceof Entry && Collections.binarySearch(this.entries, (Entry) o, ORDER) >= 0;
+        }
+
+        @Override
+        public Comparator<? super Entry> comparator() {
+            return ORDER;
+        }
+
+        @Override
+        public Entry first() {
+            if (this.entries.isEmpty()) throw new NoSuchElementException();
+            return this.entries.get(0);
+        }
+
+        @Override
+        public Entry last() {
+            if (this.entries.isEmpty()) throw new NoSuchElementException();
+            return this.entries.get(this.entries.size() - 1);
+        }
+
+        @Override
+        public SortedSet<Entry> subSet(final Entry fromElement, final Entry toElement) {
+            if (ORDER.compare(fromElement, toElement) > 0) throw new IllegalArgumentException("from after to");
+            return this.view(fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<Entry> headSet(final Entry toElement) {
+            return this.view(this.from, Objects.requireNonNull(toElement));
+        }
+
+        @Override
+        public SortedSet<Entry> tailSet(final Entry fromElement) {
+            return this.view(Objects.requireNonNull(fromElement), this.to);
+        }
+
+        /**
+         * @return View of entries in [from, to) of this view
+         */
+        private SortedView view(final Entry from, final Entry to) {
+            this.checkInRange(from);
+            this.checkInRange(to);
+            final int start = from == null ? 0 : this.indexOf(from);
+            final int end = to == null ? this.entries.size() : this.indexOf(to);
+            return new SortedView(this.entries.subList(start, end), from, to);
+        }
+
+        private void checkInRange(final Entry entry) {
+            if (entry == null) return;
+            if (this.from != null && ORDER.compare(entry, this.from) < 0
+                    || this.to != null && ORDER.compare(entry, this.to) > 0)
+                throw new IllegalArgumentException("Entry out of range");
+        }
+
+        /**
+         * @return Index of first entry not below given one
+         */
+        private int indexOf(final Entry entry) {
+            final int i = Collections.binarySearch(this.entries, entry, ORDER);
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+
+    /**
+     * Immutable sort key of an indexed player. The key fields are copied, so
+     * later changes to the player object can not corrupt the sets.
+     */
+    private static final class Entry {
+        private final int sr;
+        private final String userID;
+        private final Role role;
+        /**
+         * Epoch day of last update.
+         */
+        private final long updated;
+        /**
+         * Indexed words of description.
+         */
+        private final String[] words;
+        private final Player player;
+
+        private Entry(final Player player) {
+            this.sr = player.getSr();
+            this.userID = player.getUserID();
+            this.role = player.getRole() == null ? Role.NONE : player.getRole();
+            this.updated = player.getLastUpdate().toEpochDay();
+            this.words = Words.split(player.getDescription());
+            this.player = player;
+        }
+
+        private Entry(final int sr, final String userID) {
+            this.sr = sr;
+            this.userID = userID;
+            this.role = null;
+            this.updated = 0;
+            this.words = NO_WORDS;
+            this.player = null;
+        }
+
+        /**
+         * @return If this entry is of given role and uses all given words
+         */
+        private boolean matches(final Role role, final String[] words) {
+            if (role != Role.ANY && role != this.role) return false;
+            for (final String word : words) {
+                if (!Arrays.asList(this.words).contains(word)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package de.big_reddy.brigitte.data;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.stmt.SelectArg;
+
+import de.big_reddy.brigitte.metrics.Histogram;
+import de.big_reddy.brigitte.metrics.Metrics;
+
+/**
+ * Named, prepared database query which is safe to use from multiple threads.
+ * <br>
+ * Every invocation binds its arguments to a {@link QueryPair} of its own, so
+ * concurrent callers never share {@link SelectArg SelectArgs}. Idle pairs are
+ * pooled and reused to save preparing the statement again.
+ *
+ * @author Big_Reddy
+ *
+ * @param <T>
+ *            Type of queried entity
+ */
+public class QueryForm<T> {
+    /**
+     * Maximum number of idle {@link QueryPair QueryPairs} kept per form.
+     */
+    private static final int MAX_IDLE = 16;
+
+    /**
+     * Database interface to run queries with.
+     */
+    private final Dao<T, ?> dao;
+    /**
+     * Creates new {@link QueryPair QueryPairs} if the pool is drained.
+     */
+    private final Preparer<T> preparer;
+    /**
+     * Idle {@link QueryPair QueryPairs} ready for use.
+     */
+    private final BlockingQueue<QueryPair<T>> pool = new ArrayBlockingQueue<>(MAX_IDLE);
+    /**
+     * Duration of queries run with this form.
+     */
+    private final Histogram timer;
+
+    /**
+     * Constructor of {@link QueryForm}. Prepares the first {@link QueryPair}
+     * right away, so faulty forms fail on registration.
+     *
+     * @param name
+     *            Name of form, used for metrics
+     * @param dao
+     *            Database interface to run queries with
+     * @param preparer
+     *            Creates a fresh prepared query and its arguments
+     * @throws SQLException
+     */
+    public QueryForm(final String name, final Dao<T, ?> dao, final Preparer<T> preparer) throws SQLException {
+        this.dao = dao;
+        this.preparer = preparer;
+        this.timer = Metrics.timer("query", name);
+        this.pool.offer(preparer.prepare());
+    }
+
+    /**
+     * Run this form with given arguments. Missing arguments are bound to
+     * <code>null</code>.
+     *
+     * @param args
+     *            Arguments for this form, in order of its {@link SelectArg
+     *            SelectArgs}
+     * @return List of entities fitting this form and arguments
+     * @throws SQLException
+     */
+    public List<T> query(final Object... args) throws SQLException {
+        QueryPair<T> pair = this.pool.poll();
+        if (pair == null) {
+            pair = this.preparer.prepare();
+        }
+        final SelectArg[] selectArgs = pair.getArgs();
+        final long start = System.nanoTime();
+        try {
+            for (int i = 0; i < selectArgs.length; i++) {
+                selectArgs[i].setValue(i < args.length ? args[i] : null);
+            }
+            return this.dao.query(pair.getQuery());
+        } finally {
+            for (final SelectArg arg : selectArgs) {
+                arg.setValue(null);
+            }
+            this.pool.offer(pair);
+            this.timer.recordSince(start);
+        }
+    }
+
+    /**
+     * Return query plan of this form, as chosen by the database for
+     * arguments bound to <code>null</code>.
+     *
+     * @return Plan as given by <code>EXPLAIN</code>
+     * @throws SQLException
+     */
+    public String explain() throws SQLException {
+        final QueryPair<T> pair = this.preparer.prepare();
+        final String[] args = new String[pair.getArgs().length];
+        return this.dao.queryRaw("EXPLAIN " + pair.getQuery().getStatement(), args).getFirstResult()[0];
+    }
+
+    /**
+     * Creates a prepared query together with its {@link SelectArg
+     * SelectArgs}.
+     *
+     * @param <T>
+     *            Type of queried entity
+     */
+    @FunctionalInterface
+    public interface Preparer<T> {
+        QueryPair<T> prepare() throws SQLException;
+    }
+}
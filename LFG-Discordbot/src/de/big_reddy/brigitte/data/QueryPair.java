@@ -3,30 +3,35 @@ package de.big_reddy.brigitte.data;
 import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.SelectArg;
 
-import net.dv8tion.jda.core.utils.tuple.Pair;
-
-public class QueryPair<T> extends Pair<PreparedQuery<T>, SelectArg[]> {
-
-    /**
-     *
-     */
-    private static final long serialVersionUID = 4086035009714230375L;
+/**
+ * Prepared query together with the {@link SelectArg SelectArgs} bound into
+ * it. Used by one caller of its {@link QueryForm} at a time.
+ *
+ * @author Big_Reddy
+ *
+ * @param <T>
+ *            Type of queried entity
+ */
+public class QueryPair<T> {
     private final PreparedQuery<T> query;
-    private final SelectArg[] arg;
+    private final SelectArg[] args;
 
-    public QueryPair(final PreparedQuery<T> query, final SelectArg... arg) {
+    public QueryPair(final PreparedQuery<T> query, final SelectArg... args) {
         this.query = query;
-        this.arg = arg;
+        this.args = args;
     }
 
-    @Override
-    public PreparedQuery<T> getLeft() {
+    /**
+     * @return the query
+     */
+    public PreparedQuery<T> getQuery() {
         return this.query;
     }
 
-    @Override
-    public SelectArg[] getRight() {
-        return this.arg;
+    /**
+     * @return Arguments of the query, in order
+     */
+    public SelectArg[] getArgs() {
+        return this.args;
     }
-
 }
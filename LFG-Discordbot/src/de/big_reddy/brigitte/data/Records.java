@@ -0,0 +1,295 @@
+package de.big_reddy.brigitte.data;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Binary encoding of players and searches shared by {@link LogStorage} and
+ * {@link IndexSnapshot}. <br>
+ * A record is the length and CRC32 checksum of its payload, followed by the
+ * payload: a sequence of mutations, each starting with its type. Strings are
+ * encoded as length and UTF-8 bytes, -1 for <code>null</code>, dates as epoch
+ * day.
+ *
+ * @author Big_Reddy
+ *
+ */
+final class Records {
+    /**
+     * Bytes of record header: length and checksum of payload.
+     */
+    static final int HEADER = 8;
+
+    private static final byte PLAYER_PUT = 1;
+    private static final byte PLAYER_DELETE = 2;
+    private static final byte SEARCH_PUT = 3;
+    private static final byte SEARCH_DELETE = 4;
+    private static final Role[] ROLES = Role.values();
+
+    private Records() {}
+
+    /**
+     * Receiver of decoded mutations.
+     */
+    interface Sink {
+        void putPlayer(Player player);
+
+        void deletePlayer(String userID);
+
+        void putSearch(Search search);
+
+        void deleteSearch(int id);
+    }
+
+    /**
+     * Decode all intact records from given buffer into given sink, in order.
+     * Stops at the first torn or malformed record, which is left at the
+     * position of the buffer.
+     *
+     * @param buffer
+     *            Records to decode, from its position on
+     * @param sink
+     *            Receiver of mutations
+     * @return Bytes of decoded records
+     */
+    static long replay(final ByteBuffer buffer, final Sink sink) {
+        final int start = buffer.position();
+        for (ByteBuffer payload = next(buffer); payload != null; payload = next(buffer)) {
+            final int recordStart = buffer.position() - HEADER - payload.remaining();
+            try {
+                decode(payload, sink);
+            } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+                System.out.println("Malformed record at " + recordStart + ", skipping rest of file");
+                buffer.position(recordStart);
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    /**
+     * Split given buffer into the payloads of its intact records, so they can
+     * be decoded in parallel. Stops at the first torn record, which is left at
+     * the position of the buffer.
+     *
+     * @param buffer
+     *            Records to split, from its position on
+     * @return Payloads of records, in order
+     */
+    static List<ByteBuffer> split(final ByteBuffer buffer) {
+        final List<ByteBuffer> returnV = new ArrayList<>();
+        for (ByteBuffer payload = next(buffer); payload != null; payload = next(buffer)) {
+            returnV.add(payload);
+        }
+        return returnV;
+    }
+
+    /**
+     * Read the next record and move the buffer behind it, if it is intact.
+     *
+     * @return Payload of record, <code>null</code> at the end or at a torn
+     *         record
+     */
+    private static ByteBuffer next(final ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER) return null;
+        final int recordStart = buffer.position();
+        final int length = buffer.getInt();
+        final int expected = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(recordStart);
+            return null;
+        }
+        final ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        final CRC32 checksum = new CRC32();
+        checksum.update(payload.duplicate());
+        if ((int) checksum.getValue() != expected) {
+            System.out.println("Torn record at " + recordStart + ", skipping rest of file");
+            buffer.position(recordStart);
+            return null;
+        }
+        buffer.position(recordStart + HEADER + length);
+        return payload;
+    }
+
+    /**
+     * Decode all mutations of given payload into given sink.
+     *
+     * @param payload
+     *            Payload of one record
+     * @param sink
+     *            Receiver of mutations
+     * @throws BufferUnderflowException
+     *             Thrown if payload is malformed
+     * @throws IndexOutOfBoundsException
+     *             Thrown if payload is malformed
+     */
+    static void decode(final ByteBuffer payload, final Sink sink) {
+        while (payload.hasRemaining()) {
+            final byte type = payload.get();
+            switch (type) {
+                case PLAYER_PUT: {
+                    final Player player = new Player(getString(payload));
+                    final byte role = payload.get();
+                    player.setRole(role < 0 ? null : ROLES[role]);
+                    player.setSr(payload.getInt());
+                    player.setLastUpdate(LocalDate.ofEpochDay(payload.getInt()));
+                    player.setDescription(getString(payload));
+                    sink.putPlayer(player);
+                    break;
+                }
+                case PLAYER_DELETE:
+                    sink.deletePlayer(getString(payload));
+                    break;
+                case SEARCH_PUT: {
+                    final Search search = new Search();
+                    search.setId(payload.getInt());
+                    search.setUserID(getString(payload));
+                    final byte role = payload.get();
+                    search.setRole(role < 0 ? null : ROLES[role]);
+                    search.setSr(payload.getInt());
+                    search.setRange(payload.getInt());
+                    search.setLastUpdate(LocalDate.ofEpochDay(payload.getInt()));
+                    sink.putSearch(search);
+                    break;
+                }
+                case SEARCH_DELETE:
+                    sink.deleteSearch(payload.getInt());
+                    break;
+                default:
+                    throw new IndexOutOfBoundsException("Unknown mutation " + type);
+            }
+        }
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) return null;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Growing buffer a record is encoded into.
+     */
+    static final class Buffer {
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32 crc = new CRC32();
+
+        void putPlayer(final Player player) {
+            final String description = player.getDescription();
+            this.ensure(1 + 4 + 4 * player.getUserID().length() + 1 + 4 + 4 + 4
+                    + (description == null ? 0 : 4 * description.length()));
+            this.buffer.put(PLAYER_PUT);
+            this.putString(player.getUserID());
+            this.buffer.put((byte) (player.getRole() == null ? -1 : player.getRole().ordinal()));
+            this.buffer.putInt(player.getSr());
+            this.buffer.putInt((int) player.getLastUpdate().toEpochDay());
+            this.putString(description);
+        }
+
+        void putPlayerDelete(final String userID) {
+            this.ensure(1 + 4 + 4 * userID.length());
+            this.buffer.put(PLAYER_DELETE);
+            this.putString(userID);
+        }
+
+        void putSearch(final Search search) {
+            this.ensure(1 + 4 + 4 + 4 * search.getUserID().length() + 1 + 4 + 4 + 4);
+            this.buffer.put(SEARCH_PUT);
+            this.buffer.putInt(search.getId());
+            this.putString(search.getUserID());
+            this.buffer.put((byte) (search.getRole() == null ? -1 : search.getRole().ordinal()));
+            this.buffer.putInt(search.getSr());
+            this.buffer.putInt(search.getRange());
+            this.buffer.putInt((int) search.getLastUpdate().toEpochDay());
+        }
+
+        void putSearchDelete(final int id) {
+            this.ensure(1 + 4);
+            this.buffer.put(SEARCH_DELETE);
+            this.buffer.putInt(id);
+        }
+
+        /**
+         * Put given string as length and UTF-8 bytes, -1 for
+         * <code>null</code>. Room has to be ensured by caller, four bytes per
+         * char suffice.
+         */
+        private void putString(final String value) {
+            if (value == null) {
+                this.buffer.putInt(-1);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            this.buffer.putInt(bytes.length);
+            this.buffer.put(bytes);
+        }
+
+        /**
+         * Make room for given number of bytes.
+         */
+        private void ensure(final int bytes) {
+            if (this.buffer.remaining() >= bytes) return;
+            final ByteBuffer grown = ByteBuffer
+                    .allocate(Math.max(2 * this.buffer.capacity(), this.buffer.position() + bytes));
+            this.buffer.flip();
+            grown.put(this.buffer);
+            this.buffer = grown;
+        }
+
+        /**
+         * Finish encoding, computing the checksum.
+         *
+         * @return Payload of record
+         */
+        ByteBuffer flip() {
+            this.buffer.flip();
+            this.crc.reset();
+            this.crc.update(this.buffer.duplicate());
+            return this.buffer;
+        }
+
+        /**
+         * @return Checksum of payload, valid after {@link Buffer#flip()}
+         */
+        int checksum() {
+            return (int) this.crc.getValue();
+        }
+
+        void clear() {
+            this.buffer.clear();
+        }
+
+        /**
+         * Write record with header to given channel, if it holds any
+         * mutation, and clear it.
+         */
+        void writeTo(final FileChannel channel) throws IOException {
+            final ByteBuffer payload = this.flip();
+            if (payload.hasRemaining()) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(payload.remaining()).putInt(this.checksum()).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (payload.hasRemaining()) {
+                    channel.write(payload);
+                }
+            }
+            this.clear();
+        }
+    }
+}
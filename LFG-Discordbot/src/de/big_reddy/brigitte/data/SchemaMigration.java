@@ -0,0 +1,128 @@
+package de.big_reddy.brigitte.data;
+
+import java.sql.SQLException;
+
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import com.j256.ormlite.table.TableUtils;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Versioned, forward only migration of the database schema. <br>
+ * The version of a database is kept in table <code>schema_version</code>, on
+ * startup every migration above it is applied in order, each within a
+ * transaction together with raising the version. Migrations only add to the
+ * schema, so existing databases keep their data. Tables of the bot's models
+ * are still created by {@link com.j256.ormlite.table.TableUtils TableUtils},
+ * indexes and the tables of {@link Cluster} are only created here, for fresh
+ * and existing databases alike.
+ *
+ * @author Big_Reddy
+ *
+ */
+public final class SchemaMigration {
+    private static final String VERSION_TABLE = "`schema_version`";
+    /**
+     * Statements of every migration, migration <code>i</code> raises the
+     * schema to version <code>i + 1</code>. Only ever append.
+     */
+    private static final String[][] MIGRATIONS = {
+            // 1: Indexes used by the named query forms and expiry
+            { "CREATE INDEX IF NOT EXISTS `players_role_sr` ON `players` ( `role`, `sr` )",
+                    "CREATE INDEX IF NOT EXISTS `players_sr` ON `players` ( `sr` )",
+                    "CREATE INDEX IF NOT EXISTS `players_lastUpdate` ON `players` ( `lastUpdate` )",
+                    "CREATE INDEX IF NOT EXISTS `searches_userID` ON `searches` ( `userID` )",
+                    "CREATE INDEX IF NOT EXISTS `searches_role` ON `searches` ( `role` )",
+                    "CREATE INDEX IF NOT EXISTS `searches_lastUpdate` ON `searches` ( `lastUpdate` )" },
+            // 2: Generated search ids
+            { "ALTER TABLE `searches` ALTER COLUMN `id` INTEGER AUTO_INCREMENT" },
+            // 3: Change feed and leases of clustered nodes
+            { "CREATE TABLE IF NOT EXISTS `changes` ( `seq` BIGINT AUTO_INCREMENT, `kind` VARCHAR(255),"
+                    + " `deleted` BOOLEAN, `entity` VARCHAR(255), `userID` VARCHAR(255), `node` VARCHAR(255),"
+                    + " `created` BIGINT, PRIMARY KEY (`seq`) )",
+                    "CREATE INDEX IF NOT EXISTS `changes_created` ON `changes` ( `created` )",
+                    "CREATE TABLE IF NOT EXISTS `leases` ( `name` VARCHAR(255) NOT NULL, `holder` VARCHAR(255),"
+                            + " `expires` BIGINT, PRIMARY KEY (`name`) )" },
+            // 4: Drop indexes of forms no longer run, reads by id use the
+            // primary keys and loading ranges uses `players_sr`
+            { "DROP INDEX IF EXISTS `players_role_sr`", "DROP INDEX IF EXISTS `players_lastUpdate`",
+                    "DROP INDEX IF EXISTS `searches_userID`", "DROP INDEX IF EXISTS `searches_role`",
+                    "DROP INDEX IF EXISTS `searches_lastUpdate`" },
+            // 5: Counter of writes, part of the fingerprint of index snapshots
+            { "CREATE TABLE IF NOT EXISTS `storage_writes` ( `counter` BIGINT NOT NULL )",
+                    "INSERT INTO `storage_writes` SELECT 0 FROM DUAL WHERE NOT EXISTS (SELECT * FROM `storage_writes`)" } };
+
+    private SchemaMigration() {}
+
+    /**
+     * Bring schema of given database to the latest version. Expects tables to
+     * exist.
+     *
+     * @param connectionSource
+     *            Database connection
+     * @return Number of applied migrations
+     * @throws SQLException
+     *             Thrown if a migration failed, the schema stays at the
+     *             version of the last successful one
+     */
+    public static int migrate(final ConnectionSource connectionSource) throws SQLException {
+        execute(connectionSource, "CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (`version` INTEGER NOT NULL)");
+        final int current = getVersion(connectionSource);
+        for (int version = current + 1; version <= MIGRATIONS.length; version++) {
+            final int target = version;
+            TransactionManager.callInTransaction(connectionSource, () -> {
+                for (final String statement : MIGRATIONS[target - 1]) {
+                    execute(connectionSource, statement);
+                }
+                execute(connectionSource, "DELETE FROM " + VERSION_TABLE);
+                execute(connectionSource, "INSERT INTO " + VERSION_TABLE + " VALUES (" + target + ")");
+                return null;
+            });
+            System.out.println("Migrated database schema to version " + target);
+        }
+        return Math.max(0, MIGRATIONS.length - current);
+    }
+
+    /**
+     * Drop the tables of the bot's models together with the schema version,
+     * so {@link SchemaMigration#migrate(ConnectionSource)} applies every
+     * migration again once they are re-created.
+     *
+     * @param connectionSource
+     *            Database connection
+     * @throws SQLException
+     */
+    public static void reset(final ConnectionSource connectionSource) throws SQLException {
+        TableUtils.dropTable(connectionSource, Player.class, true);
+        TableUtils.dropTable(connectionSource, Search.class, true);
+        execute(connectionSource, "DROP TABLE IF EXISTS " + VERSION_TABLE);
+    }
+
+    /**
+     * @param connectionSource
+     *            Database connection
+     * @return Schema version of given database, 0 if it was never migrated
+     * @throws SQLException
+     */
+    private static int getVersion(final ConnectionSource connectionSource) throws SQLException {
+        final DatabaseConnection connection = connectionSource.getReadOnlyConnection(null);
+        try {
+            return (int) connection.queryForLong("SELECT COALESCE(MAX(`version`), 0) FROM " + VERSION_TABLE);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+
+    private static void execute(final ConnectionSource connectionSource, final String statement)
+            throws SQLException {
+        final DatabaseConnection connection = connectionSource.getReadWriteConnection(null);
+        try {
+            connection.executeStatement(statement, DatabaseConnection.DEFAULT_RESULT_FLAGS);
+        } finally {
+            connectionSource.releaseConnection(connection);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package de.big_reddy.brigitte.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.big_reddy.brigitte.data.models.Role;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * In-memory index of saved {@link Search searches}, answering which searches
+ * contain a given sr. <br>
+ * Holds one segment tree over the sr domain per {@link Role}, searches for
+ * {@link Role#ANY} have their own tree. A stabbing query walks one root to
+ * leaf path per tree, so it costs O(log n + k) instead of a table scan.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class SearchIndex {
+    /**
+     * Lowest sr a player can have.
+     */
+    private static final int MIN_SR = 0;
+    /**
+     * Highest sr a player can have.
+     */
+    private static final int MAX_SR = 5000;
+
+    /**
+     * Segment tree per searched role.
+     */
+    private final Map<Role, SegmentTree> byRole = new EnumMap<>(Role.class);
+    /**
+     * All indexed searches by Discord-ID of their creator.
+     */
+    private final Map<String, List<Search>> byUser = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SearchIndex() {
+        for (final Role role : Role.values()) {
+            this.byRole.put(role, new SegmentTree());
+        }
+    }
+
+    /**
+     * Add given {@link Search} to the index. <br>
+     * The search must not be modified while indexed.
+     *
+     * @param search
+     *            Search to index
+     */
+    public void put(final Search search) {
+        this.lock.writeLock().lock();
+        try {
+            this.byUser.computeIfAbsent(search.getUserID(), k -> new ArrayList<>()).add(search);
+            this.byRole.get(search.getRole()).insert(search);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove indexed {@link Search} with same id and creator as given one.
+     *
+     * @param search
+     *            Search to remove
+     */
+    public void remove(final Search search) {
+        this.lock.writeLock().lock();
+        try {
+            final List<Search> searches = this.byUser.get(search.getUserID());
+            if (searches == null) return;
+            for (final Iterator<Search> it = searches.iterator(); it.hasNext();) {
+                final Search s = it.next();
+                if (s.getId() == search.getId()) {
+                    it.remove();
+                    this.byRole.get(s.getRole()).delete(s);
+                }
+            }
+            if (searches.isEmpty()) {
+                this.byUser.remove(search.getUserID());
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all {@link Search searches} created by given user.
+     *
+     * @param userID
+     *            Discord-ID of creator
+     * @return Removed searches
+     */
+    public List<Search> removeUser(final String userID) {
+        this.lock.writeLock().lock();
+        try {
+            final List<Search> searches = this.byUser.remove(userID);
+            if (searches == null) return Collections.emptyList();
+            searches.forEach(s -> this.byRole.get(s.getRole()).delete(s));
+            return searches;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return all indexed {@link Search searches} created by given user.
+     *
+     * @param userID
+     *            Discord-ID of creator
+     * @return List of searches of user
+     */
+    public List<Search> get(final String userID) {
+        this.lock.readLock().lock();
+        try {
+            final List<Search> searches = this.byUser.get(userID);
+            return searches == null ? Collections.emptyList() : new ArrayList<>(searches);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return all {@link Search searches} for given role or {@link Role#ANY},
+     * whose range contains given sr.
+     *
+     * @param role
+     *            Role of player
+     * @param sr
+     *            SR of player
+     * @return List of fitting searches
+     */
+    public List<Search> stab(final Role role, final int sr) {
+        if (sr < MIN_SR || sr > MAX_SR) return Collections.emptyList();
+        this.lock.readLock().lock();
+        try {
+            final List<Search> returnV = new ArrayList<>();
+            this.byRole.get(Role.ANY).stab(sr, returnV);
+            if (role != Role.ANY) {
+                this.byRole.get(role).stab(sr, returnV);
+            }
+            return returnV;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return All indexed searches
+     */
+    public List<Search> all() {
+        this.lock.readLock().lock();
+        try {
+            final List<Search> returnV = new ArrayList<>();
+            this.byUser.values().forEach(returnV::addAll);
+            return returnV;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of indexed searches
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.byUser.values().stream().mapToInt(List::size).sum();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Static segment tree over [{@link SearchIndex#MIN_SR},
+     * {@link SearchIndex#MAX_SR}]. Each search is stored in the O(log n) nodes
+     * covering its range, clamped to the domain.
+     */
+    private static final class SegmentTree {
+        /**
+         * Searches by node, <code>null</code> if none.
+         */
+        private final List<Set<Search>> nodes = new ArrayList<>(Collections.nCopies(4 * (MAX_SR - MIN_SR + 1), null));
+
+        private void insert(final Search search) {
+            this.update(1, MIN_SR, MAX_SR, Math.max(search.getMinSr(), MIN_SR), Math.min(search.getMaxSr(), MAX_SR),
+                    search, true);
+        }
+
+        private void delete(final Search search) {
+            this.update(1, MIN_SR, MAX_SR, Math.max(search.getMinSr(), MIN_SR), Math.min(search.getMaxSr(), MAX_SR),
+                    search, false);
+        }
+
+        /**
+         * Add to or remove given search from all nodes covering [from, to].
+         */
+        private void update(final int node, final int lo, final int hi, final int from, final int to,
+                final Search search, final boolean add) {
+            if (from > hi || to < lo) return;
+            if (from <= lo && hi <= to) {
+                Set<Search> stored = this.nodes.get(node);
+                if (add) {
+                    if (stored == null) {
+                        stored = new HashSet<>();
+                        this.nodes.set(node, stored);
+                    }
+                    stored.add(search);
+                } else if (stored != null) {
+                    stored.remove(search);
+                    if (stored.isEmpty()) {
+                        this.nodes.set(node, null);
+                    }
+                }
+                return;
+            }
+            final int mid = (lo + hi) >>> 1;
+            this.update(2 * node, lo, mid, from, to, search, add);
+            this.update(2 * node + 1, mid + 1, hi, from, to, search, add);
+        }
+
+        /**
+         * Collect all searches stored on the path from root to leaf of sr.
+         */
+        private void stab(final int sr, final List<Search> out) {
+            int node = 1;
+            int lo = MIN_SR;
+            int hi = MAX_SR;
+            while (true) {
+                final Set<Search> stored = this.nodes.get(node);
+                if (stored != null) {
+                    out.addAll(stored);
+                }
+                if (lo == hi) return;
+                final int mid = (lo + hi) >>> 1;
+                if (sr <= mid) {
+                    node = 2 * node;
+                    hi = mid;
+                } else {
+                    node = 2 * node + 1;
+                    lo = mid + 1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package de.big_reddy.brigitte.data;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import de.big_reddy.brigitte.data.models.Change;
+import de.big_reddy.brigitte.data.models.Expirable;
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Search;
+
+/**
+ * Persistence engine behind {@link DatabaseManager}. <br>
+ * All reads are answered by the in-memory indexes of {@link DatabaseManager},
+ * a storage only has to load everything once and to persist every write.
+ * Failures are reported as {@link SQLException} by every engine, so callers
+ * handle one type.
+ *
+ * @author Big_Reddy
+ *
+ */
+public interface Storage {
+    /**
+     * Hand every saved player and search to given consumers.
+     *
+     * @param players
+     *            Consumer of players
+     * @param searches
+     *            Consumer of searches
+     * @throws SQLException
+     */
+    void load(Consumer<Player> players, Consumer<Search> searches) throws SQLException;
+
+    /**
+     * @param userID
+     *            Discord-ID of player
+     * @return Saved player with given id, <code>null</code> if none
+     * @throws SQLException
+     */
+    Player loadPlayer(String userID) throws SQLException;
+
+    /**
+     * @param id
+     *            Id of search
+     * @return Saved search with given id, <code>null</code> if none
+     * @throws SQLException
+     */
+    Search loadSearch(int id) throws SQLException;
+
+    /**
+     * Create or update given players, all or none.
+     *
+     * @param players
+     *            Players to save
+     * @throws SQLException
+     */
+    void savePlayers(Collection<Player> players) throws SQLException;
+
+    /**
+     * Delete players with given ids, all or none.
+     *
+     * @param userIDs
+     *            Discord-IDs of players
+     * @throws SQLException
+     */
+    void deletePlayers(Collection<String> userIDs) throws SQLException;
+
+    /**
+     * Save given new searches, all or none, setting their generated ids.
+     *
+     * @param searches
+     *            Searches to save
+     * @throws SQLException
+     */
+    void createSearches(Collection<Search> searches) throws SQLException;
+
+    /**
+     * Update given saved searches, all or none.
+     *
+     * @param searches
+     *            Searches to update
+     * @throws SQLException
+     */
+    void updateSearches(Collection<Search> searches) throws SQLException;
+
+    /**
+     * Delete given searches, all or none.
+     *
+     * @param searches
+     *            Searches to delete
+     * @throws SQLException
+     */
+    void deleteSearches(Collection<Search> searches) throws SQLException;
+
+    /**
+     * Periodic maintenance, run by the cleanup of expired entries.
+     *
+     * @throws SQLException
+     */
+    default void compact() throws SQLException {}
+
+    /**
+     * @return If other processes write to this storage, so
+     *         {@link Storage#pollChanges()} has to be polled
+     */
+    default boolean isShared() {
+        return false;
+    }
+
+    /**
+     * @return Changes of other processes not yet polled, in order
+     * @throws SQLException
+     */
+    default List<Change> pollChanges() throws SQLException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Acquire or renew lease of given name for this process. Always held if
+     * storage is not shared.
+     *
+     * @param name
+     *            Name of lease
+     * @param ttl
+     *            Milliseconds the lease is held from now on, unless renewed
+     * @return If this process holds the lease
+     * @throws SQLException
+     */
+    default boolean holdsLease(final String name, final long ttl) throws SQLException {
+        return true;
+    }
+
+    /**
+     * Hand given expiry warnings to the other processes, for the one seeing
+     * the user to send them. They arrive as {@link Change.Kind#WARNING}
+     * changes.
+     *
+     * @param warnings
+     *            Expiring entries this process can not warn the user of
+     * @return If warnings got handed over, never if storage is not shared
+     * @throws SQLException
+     */
+    default boolean forwardWarnings(final Collection<? extends Expirable> warnings) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Claim warning handed over by another process, so only one sends it.
+     *
+     * @param warning
+     *            Warning of the change feed
+     * @return If this process is the one to send the warning
+     * @throws SQLException
+     */
+    default boolean claimWarning(final Change warning) throws SQLException {
+        return true;
+    }
+
+    /**
+     * @return Names of query forms {@link Storage#explain(String)} can explain
+     */
+    default Set<String> getForms() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @param form
+     *            Name of form
+     * @return Query plan of given form, or reason it is not available
+     */
+    default String explain(final String form) {
+        return "No form named " + form;
+    }
+
+    /**
+     * Short summary of the saved state, which tells if an
+     * {@link IndexSnapshot} still matches it. Also called after
+     * {@link Storage#close()}.
+     *
+     * @return Fingerprint of saved state, <code>null</code> if not supported
+     * @throws SQLException
+     */
+    default String fingerprint() throws SQLException {
+        return null;
+    }
+
+    /**
+     * Release all resources, after the last write.
+     *
+     * @throws SQLException
+     */
+    void close() throws SQLException;
+}
@@ -0,0 +1,130 @@
+package de.big_reddy.brigitte.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timing wheel of deadlines with a granularity of one day. <br>
+ * Every key has at most one deadline. Scheduling, cancelling and firing a key
+ * cost O(1), advancing the wheel only looks at the slots of passed days.
+ * Deadlines further ahead than the wheel has slots stay in their slot for
+ * multiple rounds. <br>
+ * Due keys can be taken in batches, the wheel then stays on the day it
+ * stopped at until all keys due up to it are taken.
+ *
+ * @author Big_Reddy
+ *
+ * @param <K>
+ *            Type of key
+ */
+class TimingWheel<K> {
+    /**
+     * Keys by slot, slot of a day is day modulo number of slots.
+     */
+    private final List<Set<K>> slots;
+    /**
+     * Deadline (epoch day) of every scheduled key.
+     */
+    private final Map<K, Long> deadlines = new HashMap<>();
+    /**
+     * Day the wheel was last advanced to.
+     */
+    private long current;
+
+    /**
+     * Constructor of {@link TimingWheel}.
+     *
+     * @param slotCount
+     *            Number of slots, best larger than the furthest deadline in
+     *            days
+     * @param today
+     *            Epoch day to start at
+     */
+    TimingWheel(final int slotCount, final long today) {
+        final List<Set<K>> slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new LinkedHashSet<>());
+        }
+        this.slots = Collections.unmodifiableList(slots);
+        this.current = today;
+    }
+
+    /**
+     * Schedule given key to fire on given day, replacing its previous
+     * deadline. Deadlines already passed fire on next advance.
+     *
+     * @param key
+     *            Key to schedule
+     * @param day
+     *            Epoch day to fire at
+     */
+    synchronized void schedule(final K key, final long day) {
+        this.cancel(key);
+        this.deadlines.put(key, day);
+        this.slot(Math.max(day, this.current)).add(key);
+    }
+
+    /**
+     * Remove deadline of given key.
+     *
+     * @param key
+     *            Key to cancel
+     */
+    synchronized void cancel(final K key) {
+        final Long day = this.deadlines.remove(key);
+        if (day != null) {
+            this.slot(Math.max(day, this.current)).remove(key);
+        }
+    }
+
+    /**
+     * Advance wheel to given day, returning and removing at most limit keys
+     * due until then. If more keys are due, the wheel stops at the day of the
+     * last one returned and the rest is returned by the next advance.
+     *
+     * @param today
+     *            Epoch day to advance to
+     * @param limit
+     *            Maximum number of keys to return
+     * @return Keys due, in order of their slots
+     */
+    synchronized List<K> advance(final long today, final int limit) {
+        final List<K> due = new ArrayList<>();
+        if (today < this.current) return due;
+        // The current slot may hold keys scheduled overdue since last advance
+        final long first = Math.max(this.current, today - this.slots.size() + 1);
+        for (long day = first; day <= today; day++) {
+            for (final Iterator<K> it = this.slot(day).iterator(); it.hasNext();) {
+                final K key = it.next();
+                if (this.deadlines.get(key) <= today) {
+                    if (due.size() == limit) {
+                        this.current = day;
+                        return due;
+                    }
+                    it.remove();
+                    this.deadlines.remove(key);
+                    due.add(key);
+                }
+            }
+        }
+        this.current = today;
+        return due;
+    }
+
+    /**
+     * @return Number of scheduled keys
+     */
+    synchronized int size() {
+        return this.deadlines.size();
+    }
+
+    private Set<K> slot(final long day) {
+        return this.slots.get((int) Math.floorMod(day, (long) this.slots.size()));
+    }
+}
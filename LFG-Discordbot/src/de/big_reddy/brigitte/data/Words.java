@@ -0,0 +1,119 @@
+package de.big_reddy.brigitte.data;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits descriptions and searched text into words, the same way for
+ * indexing, parsing and showing them. A word is a run of letters and digits
+ * of at least {@link Words#MIN_LENGTH} characters, compared in lower case.
+ *
+ * @author Big_Reddy
+ *
+ */
+public final class Words {
+    /**
+     * Shortest word that counts. Single characters would only grow huge
+     * posting lists.
+     */
+    private static final int MIN_LENGTH = 2;
+    private static final String[] NONE = {};
+    private static final String ELLIPSIS = "...";
+
+    private Words() {}
+
+    /**
+     * Split given text into its words: lower case, without duplicates.
+     *
+     * @param text
+     *            Text to split, may be <code>null</code>
+     * @return Words of text, in order of first occurrence
+     */
+    public static String[] split(final String text) {
+        if (text == null) return NONE;
+        final Set<String> returnV = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                if (i - start >= MIN_LENGTH) {
+                    returnV.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return returnV.toArray(NONE);
+    }
+
+    /**
+     * Cut given text down to at most maxLength characters around its first
+     * occurrence of one of given words. Line breaks become spaces, cuts are
+     * made at spaces where possible and marked by "...".
+     *
+     * @param text
+     *            Text to cut, may be <code>null</code>
+     * @param words
+     *            Words to show, as returned by {@link Words#split(String)}
+     * @param maxLength
+     *            Maximum length of the snippet without the marks
+     * @return Snippet of text, empty if text is <code>null</code>
+     */
+    public static String snippet(final String text, final String[] words, final int maxLength) {
+        if (text == null) return "";
+        final String flat = text.replace('\n', ' ').replace('\r', ' ').trim();
+        if (flat.length() <= maxLength) return flat;
+        final int hit = firstOccurrence(flat, words);
+        // Show a little before the word, the rest after it
+        int from = Math.max(0, hit - maxLength / 4);
+        int to = Math.min(flat.length(), from + maxLength);
+        from = Math.max(0, to - maxLength);
+        // Cut at spaces rather than within words, if there are any
+        if (from > 0) {
+            final int space = flat.indexOf(' ', from - 1);
+            if (space >= 0 && space < hit) {
+                from = space + 1;
+            }
+        }
+        if (to < flat.length()) {
+            final int space = flat.lastIndexOf(' ', to);
+            if (space > Math.max(from, hit)) {
+                to = space;
+            }
+        }
+        final StringBuilder builder = new StringBuilder(maxLength + 2 * ELLIPSIS.length());
+        if (from > 0) {
+            builder.append(ELLIPSIS);
+        }
+        builder.append(flat, from, to);
+        if (to < flat.length()) {
+            builder.append(ELLIPSIS);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return Offset of the first word of text that is one of given words, 0
+     *         if none
+     */
+    private static int firstOccurrence(final String text, final String[] words) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                if (i - start >= MIN_LENGTH
+                        && Arrays.asList(words).contains(text.substring(start, i).toLowerCase(Locale.ROOT)))
+                    return start;
+                start = -1;
+            }
+        }
+        return 0;
+    }
+}
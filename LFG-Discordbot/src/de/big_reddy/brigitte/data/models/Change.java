@@ -0,0 +1,125 @@
+package de.big_reddy.brigitte.data.models;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Entry of the change feed: a {@link Player} or {@link Search} got written or
+ * deleted by a node. Other nodes read the feed to keep their in-memory
+ * indexes in sync. <br>
+ * The feed also carries expiry warnings a node could not deliver itself, to
+ * the node which sees the user.
+ *
+ * @author Big_Reddy
+ *
+ */
+@DatabaseTable(tableName = "changes")
+public class Change {
+    /**
+     * Kinds of changed entries.
+     */
+    public enum Kind {
+        PLAYER,
+        SEARCH,
+        /**
+         * Expiry warning of an {@link Expirable} to send to its user.
+         */
+        WARNING
+    }
+
+    @DatabaseField(generatedId = true)
+    private long seq;
+    @DatabaseField
+    private Kind kind;
+    @DatabaseField
+    private boolean deleted;
+    /**
+     * Discord-ID of a changed player, id of a changed search, respectively
+     * type of the expiring entry of a warning.
+     */
+    @DatabaseField
+    private String entity;
+    @DatabaseField
+    private String userID;
+    @DatabaseField
+    private String node;
+    /**
+     * Epoch millis the change was written at.
+     */
+    @DatabaseField
+    private long created;
+
+    /**
+     * Empty constructor for ORMLite.
+     */
+    public Change() {}
+
+    /**
+     * Constructor of {@link Change}.
+     *
+     * @param kind
+     *            Kind of changed entry
+     * @param entity
+     *            Key of changed entry
+     * @param userID
+     *            Discord-ID of user the entry belongs to
+     * @param deleted
+     *            If entry got deleted, respectively warning got sent
+     * @param node
+     *            Name of writing node
+     */
+    public Change(final Kind kind, final String entity, final String userID, final boolean deleted,
+            final String node) {
+        this.kind = kind;
+        this.entity = entity;
+        this.userID = userID;
+        this.deleted = deleted;
+        this.node = node;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Position in the feed, drawn on insert, so a change may commit
+     *         after one of higher position
+     */
+    public long getSeq() {
+        return this.seq;
+    }
+
+    /**
+     * @return the kind
+     */
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * @return If entry got deleted, else it got created or updated.
+     *         Respectively if a node already sent the warning.
+     */
+    public boolean isDeleted() {
+        return this.deleted;
+    }
+
+    /**
+     * @return Discord-ID of a changed player, id of a changed search,
+     *         respectively type of the expiring entry of a warning
+     */
+    public String getEntity() {
+        return this.entity;
+    }
+
+    /**
+     * @return the userID
+     */
+    public String getUserID() {
+        return this.userID;
+    }
+
+    /**
+     * @return Name of writing node
+     */
+    public String getNode() {
+        return this.node;
+    }
+}
@@ -10,6 +10,14 @@ import java.time.LocalDate;
  *
  */
 public interface Expirable {
+    /**
+     * Days without update after which an entry is expired.
+     */
+    int EXPIRE_DAYS = 7;
+    /**
+     * Days without update after which an entry is free to delete.
+     */
+    int DELETE_DAYS = 10;
 
     /**
      * @return the userID
@@ -27,6 +35,20 @@ public interface Expirable {
      */
     void setLastUpdate(final LocalDate lastUpdate);
 
+    /**
+     * @return First day this entry is expired, if untouched
+     */
+    default LocalDate getExpireDate() {
+        return this.getLastUpdate().plusDays(EXPIRE_DAYS + 1);
+    }
+
+    /**
+     * @return First day this entry is free to delete, if untouched
+     */
+    default LocalDate getDeleteDate() {
+        return this.getLastUpdate().plusDays(DELETE_DAYS + 1);
+    }
+
     /**
      * Return state of deprecation as follows: <br>
      * 0: not expired <br>
@@ -37,8 +59,8 @@ public interface Expirable {
      */
     default int isExpired() {
         int state = 0;
-        state += this.getLastUpdate().isBefore(LocalDate.now().minusDays(7)) ? 0 : 1;
-        state += this.getLastUpdate().isBefore(LocalDate.now().minusDays(10)) ? 0 : 1;
+        state += this.getLastUpdate().isBefore(LocalDate.now().minusDays(EXPIRE_DAYS)) ? 1 : 0;
+        state += this.getLastUpdate().isBefore(LocalDate.now().minusDays(DELETE_DAYS)) ? 1 : 0;
         return state;
     }
 }
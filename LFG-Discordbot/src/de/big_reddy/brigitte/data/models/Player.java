@@ -2,7 +2,6 @@ package de.big_reddy.brigitte.data.models;
 
 import java.sql.Date;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
@@ -31,6 +30,20 @@ public class Player implements Expirable {
         this.userID = userID;
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param player
+     *            Player to copy
+     */
+    public Player(final Player player) {
+        this.userID = player.userID;
+        this.role = player.role;
+        this.sr = player.sr;
+        this.description = player.description;
+        this.lastUpdate = player.lastUpdate;
+    }
+
     /**
      * @return the userID
      */
@@ -97,7 +110,7 @@ public class Player implements Expirable {
      */
     @Override
     public LocalDate getLastUpdate() {
-        return LocalDate.parse(this.lastUpdate.toString(), DateTimeFormatter.ISO_DATE);
+        return this.lastUpdate.toLocalDate();
     }
 
     /**
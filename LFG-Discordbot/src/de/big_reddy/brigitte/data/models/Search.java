@@ -2,7 +2,6 @@ package de.big_reddy.brigitte.data.models;
 
 import java.sql.Date;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
@@ -14,7 +13,7 @@ import com.j256.ormlite.table.DatabaseTable;
  */
 @DatabaseTable(tableName = "searches")
 public class Search implements Expirable {
-    @DatabaseField(id = true)
+    @DatabaseField(generatedId = true)
     private int id;
     @DatabaseField
     private String userID;
@@ -134,7 +133,7 @@ public class Search implements Expirable {
      */
     @Override
     public LocalDate getLastUpdate() {
-        return LocalDate.parse(this.lastUpdate.toString(), DateTimeFormatter.ISO_DATE);
+        return this.lastUpdate.toLocalDate();
     }
 
     /**
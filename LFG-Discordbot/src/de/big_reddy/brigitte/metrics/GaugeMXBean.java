@@ -0,0 +1,14 @@
+package de.big_reddy.brigitte.metrics;
+
+/**
+ * JMX view of a gauge.
+ *
+ * @author Big_Reddy
+ *
+ */
+public interface GaugeMXBean {
+    /**
+     * @return Current value
+     */
+    long getValue();
+}
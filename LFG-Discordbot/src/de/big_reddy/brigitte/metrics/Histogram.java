@@ -0,0 +1,137 @@
+package de.big_reddy.brigitte.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative values. <br>
+ * Values below 4 are counted exactly, larger ones in four buckets per power of
+ * two, so percentiles are accurate to 25%.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class Histogram implements HistogramMXBean {
+    private static final int BUCKETS = 4 * 63;
+
+    private final boolean timer;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructor of {@link Histogram}.
+     *
+     * @param timer
+     *            If recorded values are nanoseconds
+     */
+    Histogram(final boolean timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Record given value, negative values count as 0.
+     *
+     * @param value
+     *            Value to record
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.counts.incrementAndGet(index(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Record time passed since given start.
+     *
+     * @param start
+     *            Start as of {@link System#nanoTime()}
+     */
+    public void recordSince(final long start) {
+        this.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    @Override
+    public double getMean() {
+        final long n = this.count.sum();
+        return n == 0 ? 0 : (double) this.sum.sum() / n;
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return this.getPercentile(50);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return this.getPercentile(99);
+    }
+
+    @Override
+    public long getMax() {
+        return this.max.get();
+    }
+
+    @Override
+    public boolean isTimer() {
+        return this.timer;
+    }
+
+    /**
+     * @param percentile
+     *            Percentile in [0, 100]
+     * @return Upper bound of bucket holding given percentile, at most the
+     *         largest value
+     */
+    public long getPercentile(final double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += this.counts.get(i);
+        }
+        if (total == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), this.getMax());
+        }
+        return this.getMax();
+    }
+
+    /**
+     * @return Bucket of given value
+     */
+    private static int index(final long value) {
+        if (value < 4) return (int) value;
+        final int msb = 63 - Long.numberOfLeadingZeros(value);
+        return 4 * (msb - 1) + (int) ((value >>> (msb - 2)) & 3);
+    }
+
+    /**
+     * @return Largest value of given bucket
+     */
+    private static long upperBound(final int index) {
+        if (index < 4) return index;
+        final int shift = index / 4 - 1;
+        return ((4L + index % 4) << shift) + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        if (this.timer)
+            return String.format("count=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", this.getCount(),
+                    this.getMean() / 1e6, this.get50thPercentile() / 1e6, this.get99thPercentile() / 1e6,
+                    this.getMax() / 1e6);
+        return String.format("count=%d mean=%.2f p50=%d p99=%d max=%d", this.getCount(), this.getMean(),
+                this.get50thPercentile(), this.get99thPercentile(), this.getMax());
+    }
+}
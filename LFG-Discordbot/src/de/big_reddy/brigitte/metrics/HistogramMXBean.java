@@ -0,0 +1,39 @@
+package de.big_reddy.brigitte.metrics;
+
+/**
+ * JMX view of a {@link Histogram}. Values are in nanoseconds for timers.
+ *
+ * @author Big_Reddy
+ *
+ */
+public interface HistogramMXBean {
+    /**
+     * @return Number of recorded values
+     */
+    long getCount();
+
+    /**
+     * @return Mean of recorded values
+     */
+    double getMean();
+
+    /**
+     * @return Median of recorded values
+     */
+    long get50thPercentile();
+
+    /**
+     * @return 99th percentile of recorded values
+     */
+    long get99thPercentile();
+
+    /**
+     * @return Largest recorded value
+     */
+    long getMax();
+
+    /**
+     * @return If values are nanoseconds
+     */
+    boolean isTimer();
+}
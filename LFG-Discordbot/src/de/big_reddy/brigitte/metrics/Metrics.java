@@ -0,0 +1,134 @@
+package de.big_reddy.brigitte.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of all metrics, each exported through JMX as
+ * <code>de.big_reddy.brigitte:type=[type],name=[name]</code>.
+ *
+ * @author Big_Reddy
+ *
+ */
+public final class Metrics {
+    private static final String DOMAIN = "de.big_reddy.brigitte";
+
+    /**
+     * Histograms by "type.name".
+     */
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    /**
+     * Gauges by "type.name".
+     */
+    private static final Map<String, GaugeMXBean> gauges = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Return timer of given type and name, creating it if missing. Timers
+     * record nanoseconds.
+     *
+     * @param type
+     *            Kind of timed operation, e.g. command
+     * @param name
+     *            Name of timed operation, e.g. search
+     * @return Timer of given type and name
+     */
+    public static Histogram timer(final String type, final String name) {
+        return histogram(type, name, true);
+    }
+
+    /**
+     * Return histogram of plain values of given type and name, creating it if
+     * missing.
+     *
+     * @param type
+     *            Kind of value
+     * @param name
+     *            Name of value
+     * @return Histogram of given type and name
+     */
+    public static Histogram histogram(final String type, final String name) {
+        return histogram(type, name, false);
+    }
+
+    private static Histogram histogram(final String type, final String name, final boolean timer) {
+        return histograms.computeIfAbsent(type + '.' + name, k -> {
+            final Histogram histogram = new Histogram(timer);
+            register(type, name, histogram);
+            return histogram;
+        });
+    }
+
+    /**
+     * Register gauge of given type and name, replacing a previous one.
+     *
+     * @param type
+     *            Kind of value
+     * @param name
+     *            Name of value
+     * @param value
+     *            Supplies current value
+     */
+    public static void gauge(final String type, final String name, final LongSupplier value) {
+        final GaugeMXBean gauge = value::getAsLong;
+        if (gauges.put(type + '.' + name, gauge) != null) {
+            unregister(type, name);
+        }
+        register(type, name, gauge);
+    }
+
+    private static void register(final String type, final String name, final Object bean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName(type, name));
+        } catch (final JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void unregister(final String type, final String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(type, name));
+        } catch (final JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ObjectName objectName(final String type, final String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + ObjectName.quote(type) + ",name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * @return All metrics, one per line
+     */
+    public static String report() {
+        final StringBuilder builder = new StringBuilder();
+        histograms.forEach((key, histogram) -> builder.append(key).append(' ').append(histogram).append('\n'));
+        gauges.forEach((key, gauge) -> builder.append(key).append(' ').append(gauge.getValue()).append('\n'));
+        return builder.toString();
+    }
+
+    /**
+     * @return Count and 99th percentile of all used histograms and value of
+     *         all gauges, on a single line
+     */
+    public static String summary() {
+        return "metrics: " + histograms.entrySet() //
+                .stream() //
+                .filter(e -> e.getValue().getCount() > 0) //
+                .map(e -> e.getKey() + "=" + e.getValue().getCount() + "/"
+                        + (e.getValue().isTimer() ? String.format("%.1fms", e.getValue().get99thPercentile() / 1e6)
+                                : e.getValue().get99thPercentile()))
+                .collect(Collectors.joining(" ")) //
+                + " " + gauges.entrySet() //
+                        .stream() //
+                        .map(e -> e.getKey() + "=" + e.getValue().getValue()) //
+                        .collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,208 @@
+package de.big_reddy.brigitte.transport;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.security.auth.login.LoginException;
+
+import net.dv8tion.jda.bot.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.bot.sharding.ShardManager;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.OnlineStatus;
+import net.dv8tion.jda.core.entities.PrivateChannel;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.User;
+import net.dv8tion.jda.core.events.Event;
+import net.dv8tion.jda.core.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.core.events.message.priv.PrivateMessageReceivedEvent;
+import net.dv8tion.jda.core.hooks.EventListener;
+
+/**
+ * {@link Transport} to Discord through JDA. <br>
+ * Connects with multiple shards, each with a gateway session and event thread
+ * of its own, so incoming events of different guilds are handled in parallel.
+ * Events are only handed to the listener on the shard's thread, commands run
+ * on the bot's command pipeline. Besides private messages, commands written
+ * in guild text channels of the configured name are passed on.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class JdaTransport implements Transport, EventListener {
+    /**
+     * Number of shards to connect with, -1 for the number recommended by
+     * Discord. <br>
+     * System property <code>brigitte.shards</code>, defaults to -1.
+     */
+    private static final int SHARDS = Integer.getInteger("brigitte.shards", -1);
+    /**
+     * Comma separated ids of the shards this process connects with, empty for
+     * all. Lets clustered nodes split the shards among each other. <br>
+     * System property <code>brigitte.shards.ids</code>, defaults to empty.
+     */
+    private static final String SHARD_IDS = System.getProperty("brigitte.shards.ids", "");
+    /**
+     * Seconds to wait for the next shard to connect, before startup fails.
+     * Shards log in one after another, so the wait starts over whenever one
+     * connected. <br>
+     * System property <code>brigitte.shards.timeout</code>, defaults to 120.
+     */
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("brigitte.shards.timeout", 120);
+    /**
+     * Name of guild text channels commands are taken from, empty for all
+     * channels the bot can write to. <br>
+     * System property <code>brigitte.guild.channel</code>, defaults to
+     * <code>lfg</code>.
+     */
+    private static final String GUILD_CHANNEL = System.getProperty("brigitte.guild.channel", "lfg");
+
+    private final DefaultShardManagerBuilder builder = new DefaultShardManagerBuilder();
+    private ShardManager shards;
+    private Listener listener;
+    /**
+     * Opened private channels by Discord-ID of their user.
+     */
+    private final Map<String, PrivateChannel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor of {@link JdaTransport}.
+     *
+     * @param botToken
+     *            Token of application this bot shall connect to
+     */
+    public JdaTransport(final String botToken) {
+        this.builder.setToken(botToken);
+        this.builder.setShardsTotal(SHARDS);
+        if (!SHARD_IDS.trim().isEmpty()) {
+            this.builder.setShards(Arrays.stream(SHARD_IDS.split(",")) //
+                    .mapToInt(s -> Integer.parseInt(s.trim())) //
+                    .toArray());
+        }
+        this.builder.setAutoReconnect(true);
+        this.builder.setStatus(OnlineStatus.ONLINE);
+        this.builder.addEventListeners(this);
+    }
+
+    @Override
+    public void connect(final Listener listener) {
+        this.listener = listener;
+        // Login attempt: if it fails end program
+        try {
+            this.shards = this.builder.build();
+            // Shards log in one after another
+            long connected = -1;
+            long deadline = 0;
+            while (true) {
+                final long count = this.shards.getShards().stream() //
+                        .filter(s -> s.getStatus() == JDA.Status.CONNECTED) //
+                        .count();
+                if (this.shards.getShardsQueued() == 0 && count == this.shards.getShards().size()) {
+                    break;
+                }
+                if (count != connected) {
+                    connected = count;
+                    deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CONNECT_TIMEOUT);
+                } else if (System.nanoTime() - deadline > 0) {
+                    final String pending = this.shards.getShards().stream() //
+                            .filter(s -> s.getStatus() != JDA.Status.CONNECTED) //
+                            .map(s -> "shard " + s.getShardInfo().getShardId() + " " + s.getStatus()) //
+                            .collect(Collectors.joining(", "));
+                    this.shards.shutdown();
+                    throw new RuntimeException(String.format(
+                            "No shard connected within %d s, %d queued, not connected: %s. Check brigitte.shards.ids",
+                            CONNECT_TIMEOUT, this.shards.getShardsQueued(), pending));
+                }
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        } catch (LoginException | InterruptedException e) {
+            e.printStackTrace();
+            throw new RuntimeException();
+        }
+        System.out.println("Connected with " + this.shards.getShardsRunning() + " of "
+                + this.shards.getShardsTotal() + " shard(s)");
+    }
+
+    /**
+     * @see net.dv8tion.jda.core.hooks.EventListener#onEvent(net.dv8tion.jda.core.
+     *      events.Event)
+     */
+    @Override
+    public void onEvent(final Event event) {
+        if (event instanceof PrivateMessageReceivedEvent) {
+            final PrivateMessageReceivedEvent privateEvent = (PrivateMessageReceivedEvent) event;
+            if (privateEvent.getAuthor().isBot()) return;
+            final String id = privateEvent.getAuthor().getId();
+            this.channels.put(id, privateEvent.getChannel());
+            this.listener.onPrivateMessage(id, privateEvent.getMessage().getContentRaw());
+        } else if (event instanceof GuildMessageReceivedEvent) {
+            final GuildMessageReceivedEvent guildEvent = (GuildMessageReceivedEvent) event;
+            if (guildEvent.getAuthor().isBot()) return;
+            final String content = guildEvent.getMessage().getContentRaw();
+            // Most channel messages are chatter, drop them right here
+            if (!content.startsWith("!")) return;
+            final TextChannel channel = guildEvent.getChannel();
+            if (!GUILD_CHANNEL.isEmpty() && !GUILD_CHANNEL.equalsIgnoreCase(channel.getName())) return;
+            if (!channel.canTalk()) return;
+            this.listener.onChannelMessage(channel.getId(), guildEvent.getAuthor().getId(), content);
+        }
+    }
+
+    @Override
+    public boolean knowsUser(final String userID) {
+        return this.channels.containsKey(userID) || this.shards.getUserById(userID) != null;
+    }
+
+    /**
+     * Send given message, opening a private channel if none is cached. On
+     * failure the channel is dropped from cache, so the next message reopens
+     * it.
+     *
+     * @see de.big_reddy.brigitte.transport.Transport#send(java.lang.String,
+     *      java.lang.String, java.util.function.Consumer)
+     */
+    @Override
+    public void send(final String userID, final String message, final Consumer<Throwable> onFailure) {
+        final PrivateChannel channel = this.channels.get(userID);
+        if (channel != null) {
+            this.send(userID, channel, message, onFailure);
+            return;
+        }
+        final User user = this.shards.getUserById(userID);
+        if (user == null) {
+            onFailure.accept(null);
+            return;
+        }
+        user.openPrivateChannel().queue(c -> {
+            this.channels.put(userID, c);
+            this.send(userID, c, message, onFailure);
+        }, onFailure);
+    }
+
+    private void send(final String userID, final PrivateChannel channel, final String message,
+            final Consumer<Throwable> onFailure) {
+        channel.sendMessage(message).queue(null, e -> {
+            this.channels.remove(userID, channel);
+            onFailure.accept(e);
+        });
+    }
+
+    @Override
+    public void sendToChannel(final String channelID, final String message, final Consumer<Throwable> onFailure) {
+        final TextChannel channel = this.shards.getTextChannelById(channelID);
+        if (channel == null) {
+            onFailure.accept(null);
+            return;
+        }
+        channel.sendMessage(message).queue(null, onFailure);
+    }
+
+    @Override
+    public void shutdown() {
+        this.shards.setStatus(OnlineStatus.OFFLINE);
+        this.shards.shutdown();
+    }
+}
@@ -0,0 +1,337 @@
+package de.big_reddy.brigitte.transport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for Discord, used to load-test the command path without
+ * a bot token. <br>
+ * Messages are injected directly into the listener, sent messages are counted
+ * and discarded. Every {@link SimulatedTransport#reply reply} and channel
+ * message answers the oldest unanswered message of its receiver, if any, and
+ * the time in between is recorded as command latency. Other sends, like
+ * notifications, answer nothing. Any user who wrote once is known.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class SimulatedTransport implements Transport {
+    private Listener listener;
+    private final Set<String> users = ConcurrentHashMap.newKeySet();
+    /**
+     * Injection times (nanoseconds) of unanswered messages by user.
+     */
+    private final Map<String, Queue<Long>> unanswered = new ConcurrentHashMap<>();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final Object latencyLock = new Object();
+    /**
+     * Recorded latencies in nanoseconds, guarded by latencyLock.
+     */
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+
+    @Override
+    public void connect(final Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean knowsUser(final String userID) {
+        return this.users.contains(userID);
+    }
+
+    @Override
+    public void send(final String userID, final String message, final Consumer<Throwable> onFailure) {
+        if (!this.users.contains(userID)) {
+            onFailure.accept(null);
+            return;
+        }
+        this.sent.incrementAndGet();
+    }
+
+    @Override
+    public void reply(final String userID, final String message, final Consumer<Throwable> onFailure) {
+        if (!this.users.contains(userID)) {
+            onFailure.accept(null);
+            return;
+        }
+        this.sent.incrementAndGet();
+        final Queue<Long> queue = this.unanswered.get(userID);
+        final Long injected = queue == null ? null : queue.poll();
+        if (injected != null) {
+            this.outstanding.decrementAndGet();
+            this.record(System.nanoTime() - injected);
+        }
+    }
+
+    @Override
+    public void sendToChannel(final String channelID, final String message, final Consumer<Throwable> onFailure) {
+        this.reply(channelID, message, onFailure);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    /**
+     * Pass given message to the listener right away.
+     *
+     * @param userID
+     *            ID of author
+     * @param content
+     *            Raw content of message
+     */
+    public void inject(final String userID, final String content) {
+        this.users.add(userID);
+        this.received.incrementAndGet();
+        this.outstanding.incrementAndGet();
+        this.unanswered.computeIfAbsent(userID, k -> new ConcurrentLinkedQueue<>()).add(System.nanoTime());
+        this.listener.onPrivateMessage(userID, content);
+    }
+
+    /**
+     * Pass given guild channel message to the listener right away. Answers
+     * are matched by channel.
+     *
+     * @param channelID
+     *            ID of channel
+     * @param userID
+     *            ID of author
+     * @param content
+     *            Raw content of message
+     */
+    public void injectChannel(final String channelID, final String userID, final String content) {
+        this.users.add(channelID);
+        this.received.incrementAndGet();
+        this.outstanding.incrementAndGet();
+        this.unanswered.computeIfAbsent(channelID, k -> new ConcurrentLinkedQueue<>()).add(System.nanoTime());
+        this.listener.onChannelMessage(channelID, userID, content);
+    }
+
+    /**
+     * Inject given messages at given rate, then wait for their answers.
+     * Messages left unanswered by previous runs are forgotten.
+     *
+     * @param messages
+     *            Messages to inject, in order
+     * @param perSecond
+     *            Messages per second, 0 or less for as fast as possible
+     * @param timeout
+     *            Maximum time to wait for answers after the last message
+     * @param unit
+     *            Unit of timeout
+     * @return Summary of run
+     */
+    public Report replay(final List<Message> messages, final double perSecond, final long timeout,
+            final TimeUnit unit) {
+        synchronized (this.latencyLock) {
+            this.latencyCount = 0;
+        }
+        this.unanswered.clear();
+        this.outstanding.set(0);
+        final long start = System.nanoTime();
+        for (int i = 0; i < messages.size(); i++) {
+            if (perSecond > 0) {
+                final long due = start + (long) (i * TimeUnit.SECONDS.toNanos(1) / perSecond);
+                for (long now = System.nanoTime(); now < due; now = System.nanoTime()) {
+                    LockSupport.parkNanos(due - now);
+                }
+            }
+            final Message message = messages.get(i);
+            this.inject(message.userID, message.content);
+        }
+        final long injected = System.nanoTime();
+        final long deadline = injected + unit.toNanos(timeout);
+        while (this.outstanding.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        final long end = System.nanoTime();
+        synchronized (this.latencyLock) {
+            return new Report(messages.size(), injected - start, end - start,
+                    Arrays.copyOf(this.latencies, this.latencyCount));
+        }
+    }
+
+    private void record(final long latency) {
+        synchronized (this.latencyLock) {
+            if (this.latencyCount == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, 2 * this.latencies.length);
+            }
+            this.latencies[this.latencyCount++] = latency;
+        }
+    }
+
+    /**
+     * @return Number of injected messages
+     */
+    public long getReceived() {
+        return this.received.get();
+    }
+
+    /**
+     * @return Number of sent messages
+     */
+    public long getSent() {
+        return this.sent.get();
+    }
+
+    /**
+     * Load recorded messages from given file. Each line holds the ID of the
+     * author and the content, separated by a tab. Line breaks within content
+     * are written as <code>\n</code>.
+     *
+     * @param file
+     *            File to read
+     * @return Recorded messages
+     * @throws IOException
+     */
+    public static List<Message> load(final Path file) throws IOException {
+        final List<Message> returnV = new ArrayList<>();
+        for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            final int tab = line.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            returnV.add(new Message(line.substring(0, tab), line.substring(tab + 1).replace("\\n", "\n")));
+        }
+        return returnV;
+    }
+
+    /**
+     * Create synthetic messages of given number of users, mostly profile
+     * updates and searches.
+     *
+     * @param users
+     *            Number of distinct users
+     * @param count
+     *            Number of messages
+     * @param seed
+     *            Seed of randomness
+     * @return Synthetic messages
+     */
+    public static List<Message> synthetic(final int users, final int count, final long seed) {
+        final String[] roles = { "tank", "dps", "support", "flex" };
+        final Random random = new Random(seed);
+        final List<Message> returnV = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String userID = Long.toString(100000000000000000L + random.nextInt(users));
+            final String content;
+            final int kind = random.nextInt(100);
+            if (kind < 30) {
+                content = "!sr " + (1 + random.nextInt(4999));
+            } else if (kind < 45) {
+                content = "!role " + roles[random.nextInt(roles.length)];
+            } else if (kind < 50) {
+                content = "!description Looking for a team #" + i;
+            } else if (kind < 90) {
+                content = "!search -role " + roles[random.nextInt(roles.length)] + " -sr " + random.nextInt(5001)
+                        + " -range " + (100 + random.nextInt(401)) + (random.nextInt(10) == 0 ? " -notify" : "");
+            } else if (kind < 98) {
+                content = "!update";
+            } else {
+                content = "!help";
+            }
+            returnV.add(new Message(userID, content));
+        }
+        return returnV;
+    }
+
+    /**
+     * Private message as injected into the transport.
+     */
+    public static final class Message {
+        private final String userID;
+        private final String content;
+
+        public Message(final String userID, final String content) {
+            this.userID = userID;
+            this.content = content;
+        }
+
+        /**
+         * @return the userID
+         */
+        public String getUserID() {
+            return this.userID;
+        }
+
+        /**
+         * @return the content
+         */
+        public String getContent() {
+            return this.content;
+        }
+    }
+
+    /**
+     * Summary of a {@link SimulatedTransport#replay replay}.
+     */
+    public static final class Report {
+        private final int messages;
+        private final long injectNanos;
+        private final long totalNanos;
+        /**
+         * Sorted latencies in nanoseconds.
+         */
+        private final long[] latencies;
+
+        private Report(final int messages, final long injectNanos, final long totalNanos, final long[] latencies) {
+            this.messages = messages;
+            this.injectNanos = injectNanos;
+            this.totalNanos = totalNanos;
+            this.latencies = latencies;
+            Arrays.sort(this.latencies);
+        }
+
+        /**
+         * @return Number of answered messages
+         */
+        public int getAnswered() {
+            return this.latencies.length;
+        }
+
+        /**
+         * @return Answered messages per second, over the whole run
+         */
+        public double getThroughput() {
+            return this.latencies.length / (this.totalNanos / 1e9);
+        }
+
+        /**
+         * @param percentile
+         *            Percentile in [0, 100]
+         * @return Latency of given percentile in milliseconds, 0 if nothing got
+         *         answered
+         */
+        public double getLatency(final double percentile) {
+            if (this.latencies.length == 0) return 0;
+            final int index = (int) Math.ceil(percentile / 100 * this.latencies.length) - 1;
+            return this.latencies[Math.max(0, Math.min(index, this.latencies.length - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "messages=%d answered=%d inject=%.0fms total=%.0fms throughput=%.0f/s latency p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                    this.messages, this.getAnswered(), this.injectNanos / 1e6, this.totalNanos / 1e6,
+                    this.getThroughput(), this.getLatency(50), this.getLatency(90), this.getLatency(99),
+                    this.getLatency(100));
+        }
+    }
+}
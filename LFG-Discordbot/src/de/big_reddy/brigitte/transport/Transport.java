@@ -0,0 +1,104 @@
+package de.big_reddy.brigitte.transport;
+
+import java.util.function.Consumer;
+
+/**
+ * Chat backend the bot talks through: inbound private messages and channel
+ * commands, outbound sends and user lookup.
+ *
+ * @author Big_Reddy
+ *
+ */
+public interface Transport {
+    /**
+     * Receives private messages and guild channel commands of (non-bot)
+     * users.
+     */
+    interface Listener {
+        /**
+         * Called upon on an incoming private message.
+         *
+         * @param userID
+         *            ID of author
+         * @param content
+         *            Raw content of message
+         */
+        void onPrivateMessage(String userID, String content);
+
+        /**
+         * Called upon on an incoming command in a guild text channel.
+         *
+         * @param channelID
+         *            ID of channel
+         * @param userID
+         *            ID of author
+         * @param content
+         *            Raw content of message
+         */
+        void onChannelMessage(String channelID, String userID, String content);
+    }
+
+    /**
+     * Connect and start passing private messages to given listener. Blocks
+     * until connected.
+     *
+     * @param listener
+     *            Listener to pass messages to
+     */
+    void connect(Listener listener);
+
+    /**
+     * @param userID
+     *            ID of user to look up
+     * @return If given user is known and may be messaged
+     */
+    boolean knowsUser(String userID);
+
+    /**
+     * Send given private message asynchronously.
+     *
+     * @param userID
+     *            ID of receiver
+     * @param message
+     *            Message to send
+     * @param onFailure
+     *            Called upon if sending fails, with <code>null</code> if the
+     *            user is unknown
+     */
+    void send(String userID, String message, Consumer<Throwable> onFailure);
+
+    /**
+     * Send given private message asynchronously as answer to a command of
+     * its receiver. Transports not telling answers apart just send it.
+     *
+     * @param userID
+     *            ID of receiver
+     * @param message
+     *            Message to send
+     * @param onFailure
+     *            Called upon if sending fails, with <code>null</code> if the
+     *            user is unknown
+     */
+    default void reply(final String userID, final String message, final Consumer<Throwable> onFailure) {
+        this.send(userID, message, onFailure);
+    }
+
+    /**
+     * Send given message to a guild text channel asynchronously, always as
+     * answer to a command in that channel.
+     *
+     * @param channelID
+     *            ID of channel
+     * @param message
+     *            Message to send
+     * @param onFailure
+     *            Called upon if sending fails, with <code>null</code> if the
+     *            channel is unknown
+     */
+    void sendToChannel(String channelID, String message, Consumer<Throwable> onFailure);
+
+    /**
+     * Disconnect.
+     */
+    void shutdown();
+}
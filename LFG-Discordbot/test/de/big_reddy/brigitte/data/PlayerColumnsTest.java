@@ -0,0 +1,128 @@
+package de.big_reddy.brigitte.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.big_reddy.brigitte.data.models.Player;
+import de.big_reddy.brigitte.data.models.Role;
+
+/**
+ * Randomized check of {@link PlayerColumns} against a brute force reference.
+ * <br>
+ * Puts and removes players with ids from a pool of changing size, so rows are
+ * updated, moved and freed over and over, and compares the counts of every
+ * role and some sr ranges after each step. Snapshots taken along the way are
+ * checked again at the end, as copy-on-write must keep them unchanged.
+ *
+ * @author Big_Reddy
+ *
+ */
+public class PlayerColumnsTest {
+    private static final int OPERATIONS = 100000;
+    /**
+     * Roles counted, {@link Role#ANY} counts all players.
+     */
+    private static final Role[] ROLES = Role.values();
+    /**
+     * Roles of players, <code>null</code> is held as {@link Role#NONE}.
+     */
+    private static final Role[] PLAYER_ROLES = { Role.TANK, Role.DPS, Role.SUPPORT, Role.FLEX, null };
+    private static final int[][] RANGES = { { 0, 5000 }, { 0, 0 }, { 1500, 2500 }, { 2400, 2600 }, { 4000, 5000 },
+            { -100, 50 } };
+
+    @Test
+    public void countsMatchReference() {
+        for (final long seed : new long[] { 1, 2, 3 }) {
+            this.run(seed);
+        }
+    }
+
+    private void run(final long seed) {
+        final Random random = new Random(seed);
+        final PlayerColumns columns = new PlayerColumns();
+        final Map<String, Player> reference = new HashMap<>();
+        final List<PlayerColumns.Snapshot> snapshots = new ArrayList<>();
+        final List<int[]> expected = new ArrayList<>();
+        // Pool grows and shrinks, so the row map grows and whole chunks are
+        // freed again
+        int pool = 16;
+        for (int i = 0; i < OPERATIONS; i++) {
+            if (i % 10000 == 0) {
+                pool = 16 + random.nextInt(8192);
+            }
+            final int n = random.nextInt(pool);
+            // Every tenth id is no snowflake and must not be held
+            final String userID = n % 10 == 9 ? "user" + n : Long.toString(100000000000000000L + 7919L * n);
+            if (random.nextInt(3) == 0) {
+                columns.remove(userID);
+                reference.remove(userID);
+            } else {
+                final Player player = new Player(userID);
+                player.setRole(PLAYER_ROLES[random.nextInt(PLAYER_ROLES.length)]);
+                player.setSr(random.nextInt(5001));
+                final boolean snowflake = n % 10 != 9;
+                assertEquals("Put of " + userID + ", seed " + seed, snowflake, columns.put(player));
+                if (snowflake) {
+                    reference.put(userID, player);
+                }
+            }
+            final PlayerColumns.Snapshot snapshot = columns.snapshot();
+            assertEquals("Size after operation " + i + ", seed " + seed, reference.size(), snapshot.size());
+            // Counting scans all rows, so only every few operations
+            if (i % 64 == 0) {
+                final int[] counts = counts(reference);
+                check(snapshot, counts, "after operation " + i + ", seed " + seed);
+                if (random.nextInt(16) == 0) {
+                    snapshots.add(snapshot);
+                    expected.add(counts);
+                }
+            }
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            check(snapshots.get(i), expected.get(i), "of old snapshot " + i + ", seed " + seed);
+        }
+    }
+
+    /**
+     * @return Count of every role and range, by brute force
+     */
+    private static int[] counts(final Map<String, Player> reference) {
+        final int[] returnV = new int[ROLES.length * RANGES.length + 1];
+        for (final Player player : reference.values()) {
+            final Role role = player.getRole() == null ? Role.NONE : player.getRole();
+            for (int r = 0; r < ROLES.length; r++) {
+                if (ROLES[r] != Role.ANY && ROLES[r] != role) {
+                    continue;
+                }
+                for (int g = 0; g < RANGES.length; g++) {
+                    if (player.getSr() >= RANGES[g][0] && player.getSr() <= RANGES[g][1]) {
+                        returnV[r * RANGES.length + g]++;
+                    }
+                }
+            }
+        }
+        returnV[returnV.length - 1] = reference.size();
+        return returnV;
+    }
+
+    private static void check(final PlayerColumns.Snapshot snapshot, final int[] counts, final String when) {
+        assertEquals("Size " + when, counts[counts.length - 1], snapshot.size());
+        for (int r = 0; r < ROLES.length; r++) {
+            for (int g = 0; g < RANGES.length; g++) {
+                final int count = snapshot.count(ROLES[r], RANGES[g][0], RANGES[g][1]);
+                if (count != counts[r * RANGES.length + g]) {
+                    fail(String.format("Count of %s in [%d, %d] is %d instead of %d %s", ROLES[r], RANGES[g][0],
+                            RANGES[g][1], count, counts[r * RANGES.length + g], when));
+                }
+            }
+        }
+    }
+}